@@ -0,0 +1,25 @@
+package com.cmccarthyirl.api.models;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A recorded HTTP interaction, stored by {@link com.cmccarthyirl.api.utils.CassetteStore}.
+ */
+@Getter
+@Setter
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class Cassette {
+
+    private String key;
+    private long recordedAt;
+    private int status;
+    private Map<String, List<String>> headers;
+    // Base64, so binary bodies survive the round trip
+    private String body;
+
+}
@@ -1,12 +1,17 @@
 package com.cmccarthyirl.api.test;
 
 import com.cmccarthyirl.api.utils.RequestContext;
+import com.cmccarthyirl.api.utils.StubServer;
 import com.cmccarthyirl.common.*;
 import com.microsoft.playwright.APIRequestContext;
 import com.microsoft.playwright.Playwright;
 import org.slf4j.MDC;
+import org.testng.IHookCallBack;
+import org.testng.IHookable;
 import org.testng.ITestContext;
 import org.testng.ITestResult;
+import org.testng.Reporter;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.AfterSuite;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.BeforeSuite;
@@ -14,69 +19,147 @@ import org.testng.annotations.Listeners;
 
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-@Listeners({TestListener.class})
-public class BaseAPITests extends RequestContext {
+@Listeners({TestListener.class, TraceListener.class, ShardInterceptor.class, AdaptiveOrderInterceptor.class,
+        FailFastListener.class})
+public class BaseAPITests extends RequestContext implements IHookable {
 
     private final MDCModel mdcModel = new MDCModel();
+    // Playwright is not thread-safe, so each test thread lazily creates its own instance,
+    // unless the threads share the Playwright drivers configured with `playwrightDrivers`.
+    // Parallel data provider rows always share drivers, `dataProviderDrivers` of them (2 by default), as TestNG
+    // runs them on a new pool of threads for every invocation of the method
     private static final ThreadLocal<Playwright> playwrightThreadLocal = new ThreadLocal<>();
-    private static final ThreadLocal<Properties> propertiesThreadLocal = new ThreadLocal<>();
+    // Every Playwright instance created by a test thread, so they can all be closed after the suite
+    private static final Set<Playwright> playwrights = ConcurrentHashMap.newKeySet();
+    // The configuration is loaded once and shared (read-only) by every test thread
+    private static volatile Properties properties;
 
     /**
      * The setup method that runs before all tests in the suite.
-     * It initializes the Playwright instance, which is necessary for interacting with the browser or APIs.
+     * It loads the configuration shared by every test thread.
      */
     @BeforeSuite(alwaysRun = true)
     public void beforeSuite() throws IOException {
-        // Playwright instance used for managing browser and API interactions
-        playwrightThreadLocal.set(Playwright.create());
-
         // Load the configuration properties (like browser settings, headless mode, etc based on the maven profile)
-        propertiesThreadLocal.set(new ReadPropertyFile().loadProperties("./" + System.getProperty("config.file", "default-config.properties")));
+        properties = new ReadPropertyFile().loadProperties("./" + System.getProperty("config.file", "default-config.properties"));
+        // Concurrent data provider rows share the upstream quota
+        configureThrottle(properties);
     }
 
     /**
      * The teardown method that runs after all tests in the suite.
-     * It disposes of the API request context and closes the Playwright instance.
+     * It disposes of the cached API request contexts and closes the Playwright instances.
      */
     @AfterSuite(alwaysRun = true)
     public void afterAll() {
+        ExtentReporter.setSystemInfo("API request contexts", describeMetrics());
+        ExtentReporter.setSystemInfo("API throttle", getThrottle().describeMetrics());
+        if (PlaywrightDriver.describeAll() != null) {
+            ExtentReporter.setSystemInfo("Playwright drivers", PlaywrightDriver.describeAll());
+        }
+        disposeRequestContexts();
+        if (StubServer.getMode() != StubServer.Mode.LIVE) {
+            ExtentReporter.setSystemInfo("API " + StubServer.getMode().name().toLowerCase() + " mode", StubServer.describeMetrics());
+            StubServer.stopAll();
+        }
         closePlaywright();
-        ExtentReporter.extent.flush();
+        PhaseTimings.getSuiteSummary().forEach((phase, summary) ->
+                ExtentReporter.setSystemInfo("Phase " + phase, summary.describe()));
+        PhaseTimings.export();
+        if (TraceWriter.get() != null) {
+            ExtentReporter.setSystemInfo("Trace timeline", TraceWriter.get().describeMetrics());
+        }
+        if (FailFastListener.describeMetrics() != null) {
+            ExtentReporter.setSystemInfo("Fail fast", FailFastListener.describeMetrics());
+        }
+        ExtentReporter.complete();
     }
 
     /**
-     * This method closes the Playwright instance, if it exists.
+     * This method closes every Playwright instance created by the test threads, and the shared drivers.
      * It ensures that any resources associated with Playwright are properly cleaned up.
      */
     protected void closePlaywright() {
-        if (playwrightThreadLocal.get() != null) {
-            playwrightThreadLocal.get().close();
-            playwrightThreadLocal.remove();
+        playwrights.forEach(Playwright::close);
+        playwrights.clear();
+        playwrightThreadLocal.remove();
+        PlaywrightDriver.closeAll();
+    }
+
+    /**
+     * Gets the Playwright instance for the current thread, creating it on first use.
+     * With shared drivers, or on a parallel data provider thread, the thread is given the instance of one of them instead.
+     *
+     * @return the Playwright instance owned by the current thread, or by its shared driver
+     */
+    protected Playwright getPlaywright() {
+        Playwright playwright = playwrightThreadLocal.get();
+        if (playwright == null) {
+            int drivers = PlaywrightDriver.getCount(properties);
+            if (drivers <= 0 && isParallelDataProviderRow()) {
+                drivers = Integer.parseInt(properties.getProperty("dataProviderDrivers", "2"));
+            }
+            PlaywrightDriver driver = PlaywrightDriver.next(drivers);
+            if (driver != null) {
+                playwright = driver.getPlaywright();
+            } else {
+                playwright = Playwright.create();
+                playwrights.add(playwright);
+            }
+            playwrightThreadLocal.set(playwright);
         }
+        return playwright;
+    }
+
+    // The current test is a row of a data provider whose rows run concurrently
+    private static boolean isParallelDataProviderRow() {
+        ITestResult result = Reporter.getCurrentTestResult();
+        return result != null && result.getMethod().getDataProviderMethod() != null
+                && result.getMethod().getDataProviderMethod().isParallel();
     }
 
     @BeforeMethod(alwaysRun = true)
     public void beforeMethod(Method method, ITestContext context, ITestResult iTestResult) {
+        PhaseTimings.startTest();
         String methodName = method.getName();
         String logFileName = "API-" + methodName;
 
         // Set log file name in MDC
         MDC.put("logFileName", logFileName);
+        // Data provider rows share a log file name, so the test id of the log store also has the parameters
+        Object[] parameters = iTestResult.getParameters();
+        MDC.put("testId", parameters.length == 0 ? logFileName : logFileName + Arrays.toString(parameters));
 
         // Update model name
         mdcModel.setName(logFileName);
 
-        // Check if a test method needs to be created or updated
-        boolean isTestMethodValid = ExtentTests.getTest() != null
-                && ExtentTests.getTest().getModel().getName().equals(methodName);
+        // Create the test's report node, or look up the shared node of its method by TestNG test, class and method
+        ExtentTests.createOrUpdateTestMethod(iTestResult, false);
 
-        // Create or update the test if necessary
-        if (ExtentTests.getTest() == null || !isTestMethodValid) {
-            ExtentTests.createOrUpdateTestMethod(iTestResult, false);
-        }
+    }
+
+    /**
+     * Runs the test method, timing the part of it that is not spent on API requests.
+     *
+     * @param callBack   the callback that runs the test method
+     * @param testResult the result of the test
+     */
+    @Override
+    public void run(IHookCallBack callBack, ITestResult testResult) {
+        PhaseTimings.timeTestBody(() -> callBack.runTestMethod(testResult));
+    }
 
+    /**
+     * Logs the phase timings of the test to its report.
+     */
+    @AfterMethod(alwaysRun = true)
+    public void afterMethod() {
+        PhaseTimings.finishTest(MDC.get("testId"));
     }
 
     /**
@@ -86,7 +169,7 @@ public class BaseAPITests extends RequestContext {
      * @return the API request context for the weather API
      */
     public APIRequestContext weatherContext() {
-        return getWeatherAPIContext(playwrightThreadLocal.get(), propertiesThreadLocal.get());
+        return getWeatherAPIContext(getPlaywright(), properties);
     }
 }
 
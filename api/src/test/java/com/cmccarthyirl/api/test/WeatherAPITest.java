@@ -19,9 +19,10 @@ public class WeatherAPITest extends BaseAPITests {
 
     /**
      * Data provider for city locations to test weather API.
+     * The rows run concurrently (see `data-provider-thread-count`), within the limits of the request throttle.
      * @return Array of city names: Dublin and Sydney
      */
-    @DataProvider(name = "cityProvider")
+    @DataProvider(name = "cityProvider", parallel = true)
     public Object[][] cityProvider() {
         return new Object[][] {
             {"Dublin"},
@@ -43,8 +44,9 @@ public class WeatherAPITest extends BaseAPITests {
                         .setQueryParam("q", location)  // Query parameter for location
                         .setQueryParam("appid", appId));  // Query parameter for the API key (appid)
 
-        // Print the response body to the console (useful for debugging)
-        log.info("The weather for " + location + " is: " + response.text());
+        // Read the response body once and print it to the console (useful for debugging)
+        String body = response.text();
+        log.info("The weather for {} is: {}", location, body);
 
         // Assert that the response status is OK (200-299 range)
         Assert.assertTrue(response.ok(), "Response should be OK");
@@ -54,7 +56,7 @@ public class WeatherAPITest extends BaseAPITests {
 
         // Parse the response body and assert that it contains the correct location
         WeatherResponse weather =
-        objectMapper.readValue(response.text(), WeatherResponse.class);
+        objectMapper.readValue(body, WeatherResponse.class);
 
         Assert.assertEquals(weather.getName(), location, "Weather response should contain the correct location name");
         Assert.assertNotNull(weather.getMain());
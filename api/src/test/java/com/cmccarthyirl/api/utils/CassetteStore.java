@@ -0,0 +1,148 @@
+package com.cmccarthyirl.api.utils;
+
+import com.cmccarthyirl.api.models.Cassette;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk store of recorded HTTP interactions. Each interaction is a JSON file named after the hash of its key,
+ * which is the method, path and normalised query (parameters sorted, ignored parameters such as `appid` removed),
+ * plus a hash of the request body if there is one.
+ */
+public class CassetteStore {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private final Path directory;
+    private final Set<String> ignoredParameters;
+    // Cassettes already read, so a replayed suite only reads each file once
+    private final ConcurrentHashMap<String, Cassette> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a store.
+     *
+     * @param directory         the directory of the cassettes
+     * @param ignoredParameters the query parameters left out of the key, e.g. API keys
+     */
+    public CassetteStore(Path directory, Set<String> ignoredParameters) {
+        this.directory = directory;
+        this.ignoredParameters = ignoredParameters;
+    }
+
+    /**
+     * Builds the key of a request.
+     *
+     * @param method the request method
+     * @param path   the request path
+     * @param query  the raw query string, or null
+     * @param body   the request body
+     * @return the key of the request
+     */
+    public String key(String method, String path, String query, byte[] body) {
+        String key = method.toUpperCase() + " " + path;
+        String normalised = normaliseQuery(query);
+        if (!normalised.isEmpty()) {
+            key += "?" + normalised;
+        }
+        if (body.length > 0) {
+            key += " #" + sha256(body).substring(0, 16);
+        }
+        return key;
+    }
+
+    /**
+     * Finds the cassette recorded for a key.
+     *
+     * @param key the key of the request
+     * @return the cassette, or null if the request was never recorded
+     */
+    public Cassette find(String key) {
+        Cassette cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        Path file = file(key);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            Cassette cassette = objectMapper.readValue(file.toFile(), Cassette.class);
+            cache.put(key, cassette);
+            return cassette;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Saves a cassette, replacing any earlier recording of the same request.
+     * The file is written to a temporary file first, so a concurrent reader never sees half a cassette.
+     *
+     * @param cassette the cassette to save
+     */
+    public void save(Cassette cassette) {
+        try {
+            Files.createDirectories(directory);
+            Path file = file(cassette.getKey());
+            Path temp = Files.createTempFile(directory, "cassette", ".tmp");
+            objectMapper.writeValue(temp.toFile(), cassette);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            cache.put(cassette.getKey(), cassette);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private Path file(String key) {
+        return directory.resolve(sha256(key.getBytes(StandardCharsets.UTF_8)) + ".json");
+    }
+
+    // Decoded, sorted and re-encoded, so the same query always gives the same key whatever its order or encoding
+    private String normaliseQuery(String query) {
+        if (query == null || query.isEmpty()) {
+            return "";
+        }
+        List<String> parameters = new ArrayList<>();
+        for (String parameter : query.split("&")) {
+            if (parameter.isEmpty()) {
+                continue;
+            }
+            int equals = parameter.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? parameter : parameter.substring(0, equals), StandardCharsets.UTF_8);
+            String value = equals < 0 ? "" : URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8);
+            if (!ignoredParameters.contains(name)) {
+                parameters.add(URLEncoder.encode(name, StandardCharsets.UTF_8) + "="
+                        + URLEncoder.encode(value, StandardCharsets.UTF_8));
+            }
+        }
+        parameters.sort(null);
+        return String.join("&", parameters);
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
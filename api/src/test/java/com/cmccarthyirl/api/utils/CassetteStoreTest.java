@@ -0,0 +1,76 @@
+package com.cmccarthyirl.api.utils;
+
+import com.cmccarthyirl.api.models.Cassette;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+public class CassetteStoreTest {
+
+    private static final byte[] NO_BODY = new byte[0];
+
+    private final CassetteStore store = new CassetteStore(Path.of("target", "cassettes-test"), Set.of("appid"));
+
+    @Test(description = "The method is upper-cased and the parameters are sorted")
+    public void testParameterOrder() {
+        String key = store.key("get", "/data/2.5/weather", "units=metric&q=Dublin", NO_BODY);
+        Assert.assertEquals(key, "GET /data/2.5/weather?q=Dublin&units=metric");
+        Assert.assertEquals(store.key("GET", "/data/2.5/weather", "q=Dublin&units=metric", NO_BODY), key);
+    }
+
+    @Test(description = "Ignored parameters such as the API key are left out of the key")
+    public void testIgnoredParameters() {
+        Assert.assertEquals(store.key("GET", "/data/2.5/weather", "q=Dublin&appid=0a1b11f1", NO_BODY),
+                "GET /data/2.5/weather?q=Dublin");
+        Assert.assertEquals(store.key("GET", "/data/2.5/weather", "appid=0a1b11f1", NO_BODY),
+                "GET /data/2.5/weather");
+    }
+
+    @Test(description = "Differently encoded parameters give the same key")
+    public void testEncoding() {
+        String key = store.key("GET", "/data/2.5/weather", "q=New+York", NO_BODY);
+        Assert.assertEquals(key, "GET /data/2.5/weather?q=New+York");
+        Assert.assertEquals(store.key("GET", "/data/2.5/weather", "q=New%20York", NO_BODY), key);
+        Assert.assertEquals(store.key("GET", "/data/2.5/weather", "q=S%C3%A3o+Paulo", NO_BODY),
+                store.key("GET", "/data/2.5/weather", "q=São Paulo", NO_BODY));
+    }
+
+    @Test(description = "Empty queries and parameters without a value")
+    public void testEmptyQuery() {
+        Assert.assertEquals(store.key("GET", "/health", null, NO_BODY), "GET /health");
+        Assert.assertEquals(store.key("GET", "/health", "", NO_BODY), "GET /health");
+        Assert.assertEquals(store.key("GET", "/health", "&&", NO_BODY), "GET /health");
+        Assert.assertEquals(store.key("GET", "/health", "verbose&a=1", NO_BODY), "GET /health?a=1&verbose=");
+    }
+
+    @Test(description = "A request body is part of the key by its hash")
+    public void testBody() {
+        byte[] body = "{\"city\":\"Dublin\"}".getBytes(StandardCharsets.UTF_8);
+        String key = store.key("POST", "/cities", null, body);
+        Assert.assertTrue(key.matches("POST /cities #[0-9a-f]{16}"), key);
+        Assert.assertEquals(store.key("POST", "/cities", null, body.clone()), key);
+        Assert.assertNotEquals(store.key("POST", "/cities", null, "{\"city\":\"Sydney\"}".getBytes(StandardCharsets.UTF_8)), key);
+    }
+
+    @Test(description = "A saved cassette is found again by its key, also by another store")
+    public void testSaveAndFind() throws IOException {
+        // Under target, so mvn clean removes it
+        Path directory = Files.createTempDirectory(Files.createDirectories(Path.of("target")), "cassettes");
+        CassetteStore recorder = new CassetteStore(directory, Set.of("appid"));
+        Cassette cassette = new Cassette();
+        cassette.setKey(recorder.key("GET", "/data/2.5/weather", "q=Dublin&appid=one", NO_BODY));
+        cassette.setStatus(200);
+        recorder.save(cassette);
+
+        CassetteStore player = new CassetteStore(directory, Set.of("appid"));
+        Cassette found = player.find(player.key("GET", "/data/2.5/weather", "appid=two&q=Dublin", NO_BODY));
+        Assert.assertNotNull(found);
+        Assert.assertEquals(found.getStatus(), 200);
+        Assert.assertNull(player.find(player.key("GET", "/data/2.5/weather", "q=Sydney", NO_BODY)));
+    }
+}
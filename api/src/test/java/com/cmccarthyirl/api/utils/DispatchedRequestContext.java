@@ -0,0 +1,151 @@
+package com.cmccarthyirl.api.utils;
+
+import com.cmccarthyirl.common.PlaywrightDriver;
+import com.microsoft.playwright.APIRequestContext;
+import com.microsoft.playwright.APIResponse;
+import com.microsoft.playwright.Request;
+import com.microsoft.playwright.options.HttpHeader;
+import com.microsoft.playwright.options.RequestOptions;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * An APIRequestContext created on a shared {@link PlaywrightDriver}, whose calls are all run on the driver's
+ * dispatcher thread. The responses are read in full on that thread, so the test thread can use them freely.
+ */
+public class DispatchedRequestContext implements APIRequestContext {
+
+    private final APIRequestContext delegate;
+    private final PlaywrightDriver driver;
+
+    public DispatchedRequestContext(APIRequestContext delegate, PlaywrightDriver driver) {
+        this.delegate = delegate;
+        this.driver = driver;
+    }
+
+    @Override
+    public APIResponse delete(String url, RequestOptions params) {
+        return send(() -> delegate.delete(url, params));
+    }
+
+    @Override
+    public void dispose(DisposeOptions options) {
+        driver.run(() -> delegate.dispose(options));
+    }
+
+    @Override
+    public APIResponse fetch(String urlOrRequest, RequestOptions params) {
+        return send(() -> delegate.fetch(urlOrRequest, params));
+    }
+
+    @Override
+    public APIResponse fetch(Request urlOrRequest, RequestOptions params) {
+        return send(() -> delegate.fetch(urlOrRequest, params));
+    }
+
+    @Override
+    public APIResponse get(String url, RequestOptions params) {
+        return send(() -> delegate.get(url, params));
+    }
+
+    @Override
+    public APIResponse head(String url, RequestOptions params) {
+        return send(() -> delegate.head(url, params));
+    }
+
+    @Override
+    public APIResponse patch(String url, RequestOptions params) {
+        return send(() -> delegate.patch(url, params));
+    }
+
+    @Override
+    public APIResponse post(String url, RequestOptions params) {
+        return send(() -> delegate.post(url, params));
+    }
+
+    @Override
+    public APIResponse put(String url, RequestOptions params) {
+        return send(() -> delegate.put(url, params));
+    }
+
+    @Override
+    public String storageState(StorageStateOptions options) {
+        return driver.call(() -> delegate.storageState(options));
+    }
+
+    private APIResponse send(Supplier<APIResponse> request) {
+        return driver.call(() -> new DispatchedResponse(request.get(), driver));
+    }
+
+    // A response read in full on the dispatcher thread. Only dispose() goes back to the driver.
+    private static class DispatchedResponse implements APIResponse {
+
+        private final APIResponse delegate;
+        private final PlaywrightDriver driver;
+        private final byte[] body;
+        private final Map<String, String> headers;
+        private final List<HttpHeader> headersArray;
+        private final int status;
+        private final String statusText;
+        private final String url;
+
+        DispatchedResponse(APIResponse delegate, PlaywrightDriver driver) {
+            this.delegate = delegate;
+            this.driver = driver;
+            this.body = delegate.body();
+            this.headers = delegate.headers();
+            this.headersArray = delegate.headersArray();
+            this.status = delegate.status();
+            this.statusText = delegate.statusText();
+            this.url = delegate.url();
+        }
+
+        @Override
+        public byte[] body() {
+            return body;
+        }
+
+        @Override
+        public void dispose() {
+            driver.run(delegate::dispose);
+        }
+
+        @Override
+        public Map<String, String> headers() {
+            return headers;
+        }
+
+        @Override
+        public List<HttpHeader> headersArray() {
+            return headersArray;
+        }
+
+        @Override
+        public boolean ok() {
+            return status == 0 || (status >= 200 && status <= 299);
+        }
+
+        @Override
+        public int status() {
+            return status;
+        }
+
+        @Override
+        public String statusText() {
+            return statusText;
+        }
+
+        @Override
+        public String text() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String url() {
+            return url;
+        }
+    }
+}
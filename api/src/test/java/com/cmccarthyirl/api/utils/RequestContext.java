@@ -1,32 +1,116 @@
 package com.cmccarthyirl.api.utils;
 
+import com.cmccarthyirl.common.LogManager;
+import com.cmccarthyirl.common.PhaseTimings;
+import com.cmccarthyirl.common.PlaywrightDriver;
 import com.microsoft.playwright.APIRequest;
 import com.microsoft.playwright.APIRequestContext;
 import com.microsoft.playwright.Playwright;
+import com.microsoft.playwright.PlaywrightException;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 public class RequestContext {
 
+    private static final LogManager log = new LogManager(RequestContext.class);
+
+    // Request contexts keep their connections alive, so one is created per Playwright instance, base URL and headers
+    // and reused by every request. A cached context is only used by the thread that owns its Playwright instance,
+    // or by every thread sharing a Playwright driver, through the driver's dispatcher thread.
+    private static final Map<ContextKey, APIRequestContext> contexts = new ConcurrentHashMap<>();
+    private static final LongAdder creations = new LongAdder();
+    private static final LongAdder reuses = new LongAdder();
+    // Shared by every context, so the rate limit and in-flight cap apply to the whole suite
+    private static volatile RequestThrottle throttle = new RequestThrottle(0, 1, 0);
+
+    private static final Map<String, String> WEATHER_HEADERS = Map.of("Content-Type", "application/json");
+
     /**
-     * This method initializes and returns an APIRequestContext for interacting with the OpenWeatherMap API.
+     * This method returns the APIRequestContext for interacting with the OpenWeatherMap API.
      * It configures the base URL for the API and sets default headers for the requests.
+     * The context is created on first use and reused by later calls.
      *
      * @param playwright The Playwright instance to create the request context.
-     * @param properties
-     * @return The created APIRequestContext.
+     * @param properties The configuration properties, which hold the `weatherURL`.
+     * @return The cached APIRequestContext.
      */
     protected APIRequestContext getWeatherAPIContext(Playwright playwright, Properties properties) {
-        // Set the headers for the API requests
-        Map<String, String> headers = new HashMap<>();
-        headers.put("Content-Type", "application/json");
-
-        // Create and return a new APIRequestContext with the specified base URL and headers
-        return playwright.request().newContext(new APIRequest.NewContextOptions()
-                .setBaseURL(properties.getProperty("weatherURL"))  // Set the base URL for the weather API
-                .setExtraHTTPHeaders(headers)  // Set the default headers for the requests
-        );
+        // In record and replay mode the requests go to a local stub server instead
+        return getRequestContext(playwright, StubServer.resolve(properties.getProperty("weatherURL")), WEATHER_HEADERS);
+    }
+
+    /**
+     * Gets the request context for a base URL and set of headers, creating it on first use.
+     *
+     * @param playwright The Playwright instance that owns the request context.
+     * @param baseURL    The base URL of the requests.
+     * @param headers    The default headers of the requests.
+     * @return The cached APIRequestContext, whose requests are throttled.
+     */
+    protected APIRequestContext getRequestContext(Playwright playwright, String baseURL, Map<String, String> headers) {
+        ContextKey key = new ContextKey(playwright, baseURL, Map.copyOf(headers));
+        APIRequestContext context = contexts.get(key);
+        if (context != null) {
+            reuses.increment();
+            return context;
+        }
+        return contexts.computeIfAbsent(key, k -> {
+            creations.increment();
+            Supplier<APIRequestContext> create = () -> playwright.request().newContext(new APIRequest.NewContextOptions()
+                    .setBaseURL(baseURL)  // Set the base URL for the API
+                    .setExtraHTTPHeaders(headers)  // Set the default headers for the requests
+            );
+            PlaywrightDriver driver = PlaywrightDriver.of(playwright);
+            APIRequestContext created = PhaseTimings.time("api.context", () -> driver == null
+                    ? create.get()
+                    : new DispatchedRequestContext(driver.call(create), driver));
+            return new ThrottledRequestContext(created, throttle);
+        });
+    }
+
+    /**
+     * Configures the rate limit and in-flight cap of every request, see {@link RequestThrottle#fromProperties}.
+     * This must run before the first request context is created.
+     *
+     * @param properties The configuration properties.
+     */
+    public static void configureThrottle(Properties properties) {
+        throttle = RequestThrottle.fromProperties(properties);
+    }
+
+    public static RequestThrottle getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * Disposes of every cached request context. This must run before the Playwright instances are closed.
+     */
+    public static void disposeRequestContexts() {
+        contexts.values().forEach(context -> {
+            try {
+                context.dispose();
+            } catch (PlaywrightException ex) {
+                log.warn("Failed to dispose of a request context: {}", ex.getMessage());
+            }
+        });
+        contexts.clear();
+        log.info("Request contexts disposed: {}", describeMetrics());
+    }
+
+    /**
+     * Summarises how often a request context was created and reused in a single line.
+     *
+     * @return the request context counters
+     */
+    public static String describeMetrics() {
+        return "created=" + creations.sum() + ", reused=" + reuses.sum();
+    }
+
+    // Playwright is compared by identity, the headers by value
+    private record ContextKey(Playwright playwright, String baseURL, Map<String, String> headers) {
     }
 }
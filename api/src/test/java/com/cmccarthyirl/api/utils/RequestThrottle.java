@@ -0,0 +1,137 @@
+package com.cmccarthyirl.api.utils;
+
+import com.cmccarthyirl.common.PhaseTimings;
+
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Keeps concurrent API tests within the upstream quota. A token bucket limits the request rate
+ * (with an initial burst), and a semaphore caps the number of requests in flight at once.
+ * A single throttle is shared by every test thread.
+ */
+public class RequestThrottle {
+
+    private final double permitsPerSecond;
+    private final double burst;
+    private final Semaphore inFlight;
+    // The time source and the wait, in nanoseconds, replaced by the tests
+    private final LongSupplier clock;
+    private final LongConsumer sleeper;
+
+    // Token bucket state, guarded by this
+    private double tokens;
+    private long lastRefillNanos;
+
+    // Counters
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    /**
+     * Creates a throttle.
+     *
+     * @param permitsPerSecond the sustained request rate, 0 for no rate limit
+     * @param burst            the number of requests that can be made at once before the rate applies
+     * @param maxInFlight      the maximum number of requests in flight at once, 0 for no limit
+     */
+    public RequestThrottle(double permitsPerSecond, double burst, int maxInFlight) {
+        this(permitsPerSecond, burst, maxInFlight, System::nanoTime, RequestThrottle::sleep);
+    }
+
+    RequestThrottle(double permitsPerSecond, double burst, int maxInFlight, LongSupplier clock, LongConsumer sleeper) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.inFlight = maxInFlight > 0 ? new Semaphore(maxInFlight, true) : null;
+        this.clock = clock;
+        this.sleeper = sleeper;
+        this.lastRefillNanos = clock.getAsLong();
+    }
+
+    /**
+     * Creates a throttle from the `apiRateLimit` (requests per second), `apiBurst` and `apiMaxInFlight`
+     * properties. A missing property means no limit.
+     *
+     * @param properties the configuration properties
+     * @return the throttle
+     */
+    public static RequestThrottle fromProperties(Properties properties) {
+        double rate = Double.parseDouble(properties.getProperty("apiRateLimit", "0"));
+        double burst = Double.parseDouble(properties.getProperty("apiBurst", String.valueOf(Math.max(1, rate))));
+        int maxInFlight = Integer.parseInt(properties.getProperty("apiMaxInFlight", "0"));
+        return new RequestThrottle(rate, burst, maxInFlight);
+    }
+
+    /**
+     * Runs a request once a rate permit and an in-flight slot are available.
+     *
+     * @param request the request to run
+     * @param <T>     the type of the response
+     * @return the response of the request
+     */
+    public <T> T call(Supplier<T> request) {
+        long start = clock.getAsLong();
+        if (inFlight != null) {
+            inFlight.acquireUninterruptibly();
+        }
+        try {
+            long delay = reserve();
+            if (delay > 0) {
+                sleeper.accept(delay);
+            }
+            long waited = clock.getAsLong() - start;
+            waitNanos.add(waited);
+            PhaseTimings.record("api.throttle", waited);
+            requests.increment();
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                return PhaseTimings.time("api.request", request);
+            } finally {
+                running.decrementAndGet();
+            }
+        } finally {
+            if (inFlight != null) {
+                inFlight.release();
+            }
+        }
+    }
+
+    /**
+     * Summarises the throttle counters in a single line.
+     *
+     * @return the throttle counters
+     */
+    public String describeMetrics() {
+        return "requests=" + requests.sum() + ", maxInFlight=" + maxRunning.get()
+                + ", totalWaitMs=" + TimeUnit.NANOSECONDS.toMillis(waitNanos.sum());
+    }
+
+    // Takes a token, returning how long the caller has to wait for it (tokens can go negative to queue callers up)
+    private synchronized long reserve() {
+        if (permitsPerSecond <= 0) {
+            return 0;
+        }
+        long now = clock.getAsLong();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) (-tokens / permitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private static void sleep(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+    }
+}
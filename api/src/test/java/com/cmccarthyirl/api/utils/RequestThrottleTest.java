@@ -0,0 +1,142 @@
+package com.cmccarthyirl.api.utils;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RequestThrottleTest {
+
+    @Test(description = "The burst is let through at once, the next request waits for a token")
+    public void testBurst() {
+        FakeClock clock = new FakeClock(true);
+        RequestThrottle throttle = clock.throttle(10, 5, 0);
+        for (int i = 0; i < 5; i++) {
+            throttle.call(() -> null);
+        }
+        Assert.assertEquals(clock.sleeps, List.of(), "Waits during the burst");
+
+        throttle.call(() -> null);
+        // One token every 100 ms at 10 per second
+        Assert.assertEquals(clock.sleeps, List.of(TimeUnit.MILLISECONDS.toNanos(100)));
+    }
+
+    @Test(description = "Tokens refill at the rate while the throttle is idle, up to the burst")
+    public void testRefill() {
+        FakeClock clock = new FakeClock(true);
+        RequestThrottle throttle = clock.throttle(20, 2, 0);
+        throttle.call(() -> null);
+        throttle.call(() -> null);
+        // Enough for three tokens, of which only two fit in the bucket
+        clock.advance(TimeUnit.MILLISECONDS.toNanos(150));
+
+        throttle.call(() -> null);
+        throttle.call(() -> null);
+        Assert.assertEquals(clock.sleeps, List.of(), "Waits for the refilled tokens");
+        throttle.call(() -> null);
+        Assert.assertEquals(clock.sleeps, List.of(TimeUnit.MILLISECONDS.toNanos(50)));
+    }
+
+    @Test(description = "Without a rate nothing waits")
+    public void testNoLimit() {
+        FakeClock clock = new FakeClock(true);
+        RequestThrottle throttle = clock.throttle(0, 1, 0);
+        for (int i = 0; i < 100; i++) {
+            throttle.call(() -> null);
+        }
+        Assert.assertEquals(clock.sleeps, List.of());
+        Assert.assertEquals(throttle.describeMetrics(), "requests=100, maxInFlight=1, totalWaitMs=0");
+    }
+
+    @Test(description = "Concurrent callers queue up for the tokens, each getting its own slot, so none is starved")
+    public void testWaitingCallersGetOneSlotEach() throws Exception {
+        // The clock stands still, so every caller reserves its token at the same instant
+        FakeClock clock = new FakeClock(false);
+        RequestThrottle throttle = clock.throttle(20, 1, 0);
+        int callers = 6;
+        runConcurrently(callers, () -> throttle.call(() -> null));
+
+        List<Long> sleeps = new ArrayList<>(clock.sleeps);
+        Collections.sort(sleeps);
+        List<Long> expected = new ArrayList<>();
+        for (int i = 1; i < callers; i++) {
+            // One token every 50 ms at 20 per second, the i-th caller gets the i-th token
+            expected.add(TimeUnit.MILLISECONDS.toNanos(50L * i));
+        }
+        Assert.assertEquals(sleeps, expected);
+    }
+
+    @Test(description = "No more requests than the maximum are in flight at once, and every request gets a slot")
+    public void testMaxInFlight() throws Exception {
+        RequestThrottle throttle = new RequestThrottle(0, 1, 2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        runConcurrently(8, () -> throttle.call(() -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                TimeUnit.MILLISECONDS.sleep(20);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return running.decrementAndGet();
+        }));
+        Assert.assertEquals(maxRunning.get(), 2);
+        Assert.assertTrue(throttle.describeMetrics().startsWith("requests=8, maxInFlight=2,"), throttle.describeMetrics());
+    }
+
+    // Starts the callers together and waits for all of them
+    private static void runConcurrently(int callers, Runnable call) throws Exception {
+        CountDownLatch ready = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            for (int i = 0; i < callers; i++) {
+                futures.add(executor.submit(() -> {
+                    ready.await();
+                    call.run();
+                    return null;
+                }));
+            }
+            ready.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // A clock that only moves when told to, recording the waits of the throttle instead of sleeping
+    private static class FakeClock {
+
+        private final AtomicLong now = new AtomicLong(1_000_000_000L);
+        private final List<Long> sleeps = Collections.synchronizedList(new ArrayList<>());
+        private final boolean sleepAdvances;
+
+        private FakeClock(boolean sleepAdvances) {
+            this.sleepAdvances = sleepAdvances;
+        }
+
+        private RequestThrottle throttle(double permitsPerSecond, double burst, int maxInFlight) {
+            return new RequestThrottle(permitsPerSecond, burst, maxInFlight, now::get, nanos -> {
+                sleeps.add(nanos);
+                if (sleepAdvances) {
+                    advance(nanos);
+                }
+            });
+        }
+
+        private void advance(long nanos) {
+            now.addAndGet(nanos);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.cmccarthyirl.api.utils;
+
+import com.cmccarthyirl.api.models.Cassette;
+import com.cmccarthyirl.common.LogManager;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Local HTTP server that records and replays an upstream API, so API suites can run offline.
+ * The mode is chosen with `-Dapi.mode`:
+ * <ul>
+ *     <li>`live` (the default) - no server, requests go straight to the upstream API</li>
+ *     <li>`record` - requests are proxied to the upstream API and the responses are saved as cassettes</li>
+ *     <li>`replay` - requests are answered from the cassettes, an unrecorded request gets a 404</li>
+ * </ul>
+ * `-Dapi.cassettes` sets the cassette directory, `-Dapi.ignoreParams` the query parameters left out of the
+ * cassette keys (`appid` by default) and `-Dapi.latencyMs` a fixed delay added to every replayed response.
+ */
+public class StubServer {
+
+    public enum Mode {
+        LIVE, RECORD, REPLAY
+    }
+
+    private static final LogManager log = new LogManager(StubServer.class);
+
+    // Headers that belong to a single connection and must not be copied between requests or responses
+    private static final Set<String> HOP_BY_HOP = Set.of("connection", "content-length", "expect", "host",
+            "keep-alive", "transfer-encoding", "upgrade");
+
+    // One server per upstream base URL
+    private static final Map<String, StubServer> servers = new ConcurrentHashMap<>();
+
+    private final String upstream;
+    private final Mode mode;
+    private final CassetteStore store;
+    private final long latencyMs;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final HttpClient client;
+
+    // Counters
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder missed = new LongAdder();
+
+    private StubServer(String upstream, Mode mode, CassetteStore store, long latencyMs) throws IOException {
+        this.upstream = upstream.endsWith("/") ? upstream.substring(0, upstream.length() - 1) : upstream;
+        this.mode = mode;
+        this.store = store;
+        this.latencyMs = latencyMs;
+        this.client = mode == Mode.RECORD
+                ? HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build()
+                : null;
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "stub-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    public static Mode getMode() {
+        return Mode.valueOf(System.getProperty("api.mode", "live").toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Gets the base URL requests for an upstream API should be sent to. In record and replay mode
+     * this starts (once) a local server for the upstream API and returns its URL.
+     *
+     * @param upstream the base URL of the upstream API
+     * @return the base URL to use
+     */
+    public static String resolve(String upstream) {
+        Mode mode = getMode();
+        if (mode == Mode.LIVE) {
+            return upstream;
+        }
+        return servers.computeIfAbsent(upstream, url -> start(url, mode)).getBaseURL();
+    }
+
+    /**
+     * Stops every server, logging its counters.
+     */
+    public static void stopAll() {
+        servers.values().forEach(StubServer::stop);
+        servers.clear();
+    }
+
+    /**
+     * Summarises the counters of every server in a single line.
+     *
+     * @return the counters, or an empty string in live mode
+     */
+    public static String describeMetrics() {
+        return servers.values().stream()
+                .map(server -> server.upstream + ": replayed=" + server.replayed.sum()
+                        + ", recorded=" + server.recorded.sum() + ", missed=" + server.missed.sum())
+                .collect(Collectors.joining("; "));
+    }
+
+    public String getBaseURL() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    private static StubServer start(String upstream, Mode mode) {
+        Set<String> ignored = Arrays.stream(System.getProperty("api.ignoreParams", "appid").split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .collect(Collectors.toSet());
+        // Each upstream API gets its own folder of cassettes
+        String host = URI.create(upstream).getHost();
+        CassetteStore store = new CassetteStore(
+                Paths.get(System.getProperty("api.cassettes", "src/test/resources/cassettes"), host), ignored);
+        long latencyMs = Long.parseLong(System.getProperty("api.latencyMs", "0"));
+        try {
+            StubServer server = new StubServer(upstream, mode, store, latencyMs);
+            log.info("Started a {} server for {} at {} with cassettes in {}",
+                    mode, upstream, server.getBaseURL(), store.getDirectory());
+            return server;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+        log.info("Stopped the {} server for {}: replayed={}, recorded={}, missed={}",
+                mode, upstream, replayed.sum(), recorded.sum(), missed.sum());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] requestBody;
+            try (InputStream in = exchange.getRequestBody()) {
+                requestBody = in.readAllBytes();
+            }
+            URI uri = exchange.getRequestURI();
+            String key = store.key(exchange.getRequestMethod(), uri.getRawPath(), uri.getRawQuery(), requestBody);
+
+            Cassette cassette;
+            if (mode == Mode.RECORD) {
+                cassette = record(exchange, key, requestBody);
+                store.save(cassette);
+                recorded.increment();
+            } else {
+                cassette = store.find(key);
+                if (cassette == null) {
+                    missed.increment();
+                    log.warn("No cassette for {} in {}", key, store.getDirectory());
+                    respond(exchange, 404, Map.of(), ("No cassette for " + key).getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                replayed.increment();
+                if (latencyMs > 0) {
+                    TimeUnit.MILLISECONDS.sleep(latencyMs);
+                }
+            }
+            respond(exchange, cassette.getStatus(), cassette.getHeaders(), Base64.getDecoder().decode(cassette.getBody()));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException ex) {
+            log.error("Failed to serve {}: {}", exchange.getRequestURI(), ex.toString());
+            throw ex;
+        }
+    }
+
+    // Sends the request on to the upstream API and captures the response
+    private Cassette record(HttpExchange exchange, String key, byte[] requestBody) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(upstream + exchange.getRequestURI()))
+                .method(exchange.getRequestMethod(), requestBody.length == 0
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofByteArray(requestBody));
+        exchange.getRequestHeaders().forEach((name, values) -> {
+            if (!HOP_BY_HOP.contains(name.toLowerCase(Locale.ROOT))) {
+                values.forEach(value -> request.header(name, value));
+            }
+        });
+        HttpResponse<byte[]> response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+
+        Cassette cassette = new Cassette();
+        cassette.setKey(key);
+        cassette.setRecordedAt(System.currentTimeMillis());
+        cassette.setStatus(response.statusCode());
+        cassette.setHeaders(response.headers().map());
+        cassette.setBody(Base64.getEncoder().encodeToString(response.body()));
+        return cassette;
+    }
+
+    private void respond(HttpExchange exchange, int status, Map<String, List<String>> headers, byte[] body)
+            throws IOException {
+        headers.forEach((name, values) -> {
+            if (!HOP_BY_HOP.contains(name.toLowerCase(Locale.ROOT))) {
+                exchange.getResponseHeaders().put(name, values);
+            }
+        });
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
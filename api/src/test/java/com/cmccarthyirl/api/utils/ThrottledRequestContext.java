@@ -0,0 +1,71 @@
+package com.cmccarthyirl.api.utils;
+
+import com.microsoft.playwright.APIRequestContext;
+import com.microsoft.playwright.APIResponse;
+import com.microsoft.playwright.Request;
+import com.microsoft.playwright.options.RequestOptions;
+
+/**
+ * An APIRequestContext that sends every request through a {@link RequestThrottle}.
+ * Everything else is passed straight to the wrapped context.
+ */
+public class ThrottledRequestContext implements APIRequestContext {
+
+    private final APIRequestContext delegate;
+    private final RequestThrottle throttle;
+
+    public ThrottledRequestContext(APIRequestContext delegate, RequestThrottle throttle) {
+        this.delegate = delegate;
+        this.throttle = throttle;
+    }
+
+    @Override
+    public APIResponse delete(String url, RequestOptions params) {
+        return throttle.call(() -> delegate.delete(url, params));
+    }
+
+    @Override
+    public void dispose(DisposeOptions options) {
+        delegate.dispose(options);
+    }
+
+    @Override
+    public APIResponse fetch(String urlOrRequest, RequestOptions params) {
+        return throttle.call(() -> delegate.fetch(urlOrRequest, params));
+    }
+
+    @Override
+    public APIResponse fetch(Request urlOrRequest, RequestOptions params) {
+        return throttle.call(() -> delegate.fetch(urlOrRequest, params));
+    }
+
+    @Override
+    public APIResponse get(String url, RequestOptions params) {
+        return throttle.call(() -> delegate.get(url, params));
+    }
+
+    @Override
+    public APIResponse head(String url, RequestOptions params) {
+        return throttle.call(() -> delegate.head(url, params));
+    }
+
+    @Override
+    public APIResponse patch(String url, RequestOptions params) {
+        return throttle.call(() -> delegate.patch(url, params));
+    }
+
+    @Override
+    public APIResponse post(String url, RequestOptions params) {
+        return throttle.call(() -> delegate.post(url, params));
+    }
+
+    @Override
+    public APIResponse put(String url, RequestOptions params) {
+        return throttle.call(() -> delegate.put(url, params));
+    }
+
+    @Override
+    public String storageState(StorageStateOptions options) {
+        return delegate.storageState(options);
+    }
+}
@@ -0,0 +1,42 @@
+package com.cmccarthyirl.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Runs the benchmarks with the usual JMH command line options, writing the results as JSON to
+ * {@value #RESULT_PATH} unless `-rf`/`-rff` say otherwise, so a CI job can compare them with a previous run:
+ * <pre>
+ * java -jar bench/target/benchmarks.jar
+ * java -jar bench/target/benchmarks.jar LogManagerBenchmark -p activeTest=true
+ * </pre>
+ */
+public class BenchmarkRunner {
+
+    public static final String RESULT_PATH = "target/jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+        if (commandLine.shouldList()) {
+            new Runner(commandLine).list();
+            return;
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (commandLine.getResultFormat().hasValue() || commandLine.getResult().hasValue()) {
+            new Runner(options.build()).run();
+            return;
+        }
+        Files.createDirectories(Paths.get(RESULT_PATH).getParent());
+        new Runner(options.resultFormat(ResultFormatType.JSON).result(RESULT_PATH).build()).run();
+    }
+}
@@ -0,0 +1,46 @@
+package com.cmccarthyirl.bench;
+
+import com.cmccarthyirl.api.models.WeatherResponse;
+import com.cmccarthyirl.common.ReadPropertyFile;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading the configuration with {@link ReadPropertyFile}, which every suite does, and deserialising a
+ * weather API response with Jackson, which every API test does. The response is a recorded payload, so nothing
+ * goes over the network.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConfigBenchmark {
+
+    // A response of the current weather endpoint, with the fields the model ignores
+    private static final String WEATHER_RESPONSE = "{\"coord\":{\"lon\":-6.2672,\"lat\":53.344},"
+            + "\"weather\":[{\"id\":803,\"main\":\"Clouds\",\"description\":\"broken clouds\",\"icon\":\"04d\"}],"
+            + "\"base\":\"stations\",\"main\":{\"temp\":285.12,\"feels_like\":284.33,\"temp_min\":284.26,"
+            + "\"temp_max\":286.15,\"pressure\":1012,\"humidity\":77,\"sea_level\":1012,\"grnd_level\":1008},"
+            + "\"visibility\":10000,\"wind\":{\"speed\":6.17,\"deg\":240},\"clouds\":{\"all\":75},\"dt\":1697640000,"
+            + "\"sys\":{\"type\":2,\"id\":2037117,\"country\":\"IE\",\"sunrise\":1697612731,\"sunset\":1697650516},"
+            + "\"timezone\":3600,\"id\":2964574,\"name\":\"Dublin\",\"cod\":200}";
+
+    private final ReadPropertyFile readPropertyFile = new ReadPropertyFile();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Benchmark
+    public Properties loadProperties() throws IOException {
+        return readPropertyFile.loadProperties("default-config.properties");
+    }
+
+    @Benchmark
+    public WeatherResponse readWeatherResponse() throws IOException {
+        return objectMapper.readValue(WEATHER_RESPONSE, WeatherResponse.class);
+    }
+}
@@ -0,0 +1,124 @@
+package com.cmccarthyirl.bench;
+
+import com.cmccarthyirl.common.PlaywrightDriver;
+import com.microsoft.playwright.APIRequestContext;
+import com.microsoft.playwright.Browser;
+import com.microsoft.playwright.BrowserType;
+import com.microsoft.playwright.Playwright;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the startup time and memory of one Playwright instance per browser (or API thread)
+ * with a few shared {@link PlaywrightDriver}s. Each layout starts the same number of browsers or
+ * request contexts in parallel, like the browser pool warm-up, and reports the time it took and the
+ * resident memory of the driver and browser processes (read from /proc, so Linux only). It starts real
+ * browsers, so it runs on its own instead of through JMH:
+ * <pre>
+ * java -cp bench/target/benchmarks.jar com.cmccarthyirl.bench.DriverBenchmark 16 2 chromium
+ * java -cp bench/target/benchmarks.jar com.cmccarthyirl.bench.DriverBenchmark 16 2 api
+ * </pre>
+ */
+public class DriverBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: DriverBenchmark <instances> <drivers> [chromium|api]");
+            System.exit(1);
+        }
+        int instances = Integer.parseInt(args[0]);
+        int drivers = Integer.parseInt(args[1]);
+        boolean browsers = args.length < 3 || "chromium".equals(args[2]);
+
+        System.out.printf("%-10s %8s %10s %10s %10s%n", "layout", "drivers", "startupMs", "processes", "rssMb");
+        System.out.println(run("dedicated", instances, 0, browsers));
+        System.out.println(run("shared", instances, drivers, browsers));
+    }
+
+    // Starts the instances, measures them and closes everything again
+    private static String run(String layout, int instances, int drivers, boolean browsers) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("playwrightDrivers", String.valueOf(drivers));
+        List<Playwright> owned = new ArrayList<>();
+        List<AutoCloseable> started = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(instances);
+        long start = System.nanoTime();
+        try {
+            List<Future<AutoCloseable>> futures = new ArrayList<>();
+            for (int i = 0; i < instances; i++) {
+                futures.add(executor.submit(() -> {
+                    PlaywrightDriver driver = PlaywrightDriver.next(properties);
+                    if (driver != null) {
+                        return driver.call(() -> start(driver.getPlaywright(), browsers, driver));
+                    }
+                    Playwright playwright = Playwright.create();
+                    synchronized (owned) {
+                        owned.add(playwright);
+                    }
+                    return start(playwright, browsers, null);
+                }));
+            }
+            for (Future<AutoCloseable> future : futures) {
+                started.add(future.get());
+            }
+            long startupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            List<ProcessHandle> processes = ProcessHandle.current().descendants().toList();
+            long rssKb = 0;
+            for (ProcessHandle process : processes) {
+                rssKb += residentKb(process.pid());
+            }
+            int driverCount = drivers > 0 ? drivers : instances;
+            return String.format("%-10s %8d %10d %10d %10d", layout, driverCount, startupMillis, processes.size(), rssKb / 1024);
+        } finally {
+            for (AutoCloseable closeable : started) {
+                closeable.close();
+            }
+            owned.forEach(Playwright::close);
+            PlaywrightDriver.closeAll();
+            executor.shutdown();
+        }
+    }
+
+    // A browser, or a request context when there are no browsers to launch, closed on the thread that owns it
+    private static AutoCloseable start(Playwright playwright, boolean browsers, PlaywrightDriver driver) {
+        AutoCloseable closeable;
+        if (browsers) {
+            Browser browser = playwright.chromium().launch(new BrowserType.LaunchOptions().setHeadless(true));
+            closeable = browser::close;
+        } else {
+            APIRequestContext context = playwright.request().newContext();
+            closeable = context::dispose;
+        }
+        return driver == null ? closeable : () -> driver.run(() -> {
+            try {
+                closeable.close();
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+    }
+
+    private static long residentKb(long pid) {
+        Path status = Paths.get("/proc", String.valueOf(pid), "status");
+        try {
+            for (String line : Files.readAllLines(status)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            // The process has exited, or this is not Linux
+        }
+        return 0;
+    }
+}
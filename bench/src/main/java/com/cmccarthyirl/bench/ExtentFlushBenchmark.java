@@ -0,0 +1,60 @@
+package com.cmccarthyirl.bench;
+
+import com.aventstack.extentreports.ExtentReports;
+import com.aventstack.extentreports.ExtentTest;
+import com.cmccarthyirl.common.ExtentReporter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how a flush of the Spark report, which re-renders the whole report, scales with the number of tests.
+ * The report is set up like {@link ExtentReporter#extent}, but on its own instance in a temporary directory,
+ * so every trial starts from the given number of tests.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExtentFlushBenchmark {
+
+    private static final int LOGS_PER_TEST = 10;
+
+    @Param({"10", "100", "1000"})
+    public int tests;
+
+    private ExtentReports extent;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("extent-bench");
+        extent = new ExtentReports();
+        extent.attachReporter(ExtentReporter.createSparkReporter(directory.resolve("spark-report.html").toString()));
+        for (int i = 0; i < tests; i++) {
+            ExtentTest test = extent.createTest("test" + i, "A benchmark test");
+            test.assignCategory("bench");
+            for (int j = 0; j < LOGS_PER_TEST; j++) {
+                test.info("The user searched for " + j);
+            }
+            test.pass("Test passed");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (var files = Files.walk(directory)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void flush() {
+        extent.flush();
+    }
+}
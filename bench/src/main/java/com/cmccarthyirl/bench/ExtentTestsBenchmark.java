@@ -0,0 +1,81 @@
+package com.cmccarthyirl.bench;
+
+import com.cmccarthyirl.common.ExtentTests;
+import org.openjdk.jmh.annotations.*;
+import org.testng.ITestResult;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ExtentTests#createOrUpdateTestMethod(ITestResult, boolean)} for a data provider with many rows:
+ * registering every row of a method the first time, and looking a row up again, which every later test of the row
+ * and every log call pays for.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ExtentTestsBenchmark {
+
+    @Param({"100", "1000"})
+    public int rows;
+
+    private ITestResult[] registered;
+    private int next;
+    private int method;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        registered = rows("registered");
+        for (ITestResult row : registered) {
+            ExtentTests.createOrUpdateTestMethod(row, false);
+        }
+    }
+
+    /**
+     * Looks up an existing row, from a rotating position so every row is hit.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void lookupRow() {
+        ExtentTests.createOrUpdateTestMethod(registered[next++ % rows], false);
+    }
+
+    /**
+     * Registers every row of a new method, which adds the method node and a node per row to the report.
+     * Each call adds nodes to the shared report, so it is measured a fixed number of times.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, batchSize = 1)
+    @Measurement(iterations = 10, batchSize = 1)
+    public void registerRows(NewMethod newMethod) {
+        for (ITestResult row : newMethod.rows) {
+            ExtentTests.createOrUpdateTestMethod(row, false);
+        }
+    }
+
+    /**
+     * The rows of a method that has not been registered yet, built outside the measured call.
+     */
+    @State(Scope.Thread)
+    public static class NewMethod {
+
+        private ITestResult[] rows;
+
+        @Setup(Level.Invocation)
+        public void setUp(ExtentTestsBenchmark benchmark) {
+            rows = benchmark.rows("method" + benchmark.method++);
+        }
+    }
+
+    private ITestResult[] rows(String methodName) {
+        ITestResult[] results = new ITestResult[rows];
+        for (int i = 0; i < rows; i++) {
+            results[i] = TestResults.of("ExtentTestsBenchmark", methodName, "row" + i, i);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,68 @@
+package com.cmccarthyirl.bench;
+
+import com.aventstack.extentreports.ExtentTest;
+import com.cmccarthyirl.common.ExtentReporter;
+import com.cmccarthyirl.common.ExtentTests;
+import com.cmccarthyirl.common.LogManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link LogManager} throughput outside a test, where a message only goes to logback, and inside one, where
+ * it is also buffered for the test's report and committed in batches, as when a test finishes.
+ * The logs go to the log store only (see the bench logback.xml), so the console does not skew the results.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LogManagerBenchmark {
+
+    private static final LogManager log = new LogManager(LogManagerBenchmark.class);
+    private static final int BATCH = 100;
+
+    @Param({"false", "true"})
+    public boolean activeTest;
+
+    private ExtentTest test;
+    private int invocation;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        if (activeTest) {
+            ExtentTests.createOrUpdateTestMethod(TestResults.of("LogManagerBenchmark", "logging" + invocation++), false);
+            test = ExtentTests.getTest();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        if (test != null) {
+            ExtentReporter.extent.removeTest(test);
+            test = null;
+        }
+    }
+
+    /**
+     * Logs a batch of formatted messages, then commits the test's buffered logs, if any, like the end of a test.
+     * The committed logs are cleared again so the report does not grow during the run.
+     *
+     * @return the last message's argument, so the loop is not optimised away
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int logBatch() {
+        int i = 0;
+        for (; i < BATCH; i++) {
+            log.info("The user searched for {}", i);
+        }
+        if (test != null) {
+            LogManager.commit();
+            test.getModel().getLogs().clear();
+        }
+        return i;
+    }
+}
@@ -0,0 +1,58 @@
+package com.cmccarthyirl.bench;
+
+import org.testng.IClass;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlTest;
+
+import java.lang.reflect.Proxy;
+
+/**
+ * Builds the parts of a TestNG result that the report code reads, without running TestNG.
+ */
+final class TestResults {
+
+    private TestResults() {
+    }
+
+    /**
+     * Creates the result of a test method invocation.
+     *
+     * @param testName   the name of the TestNG test
+     * @param methodName the name of the test method
+     * @param parameters the data provider row, if any
+     * @return the result
+     */
+    static ITestResult of(String testName, String methodName, Object... parameters) {
+        XmlTest xmlTest = new XmlTest(new XmlSuite());
+        xmlTest.setName(testName);
+        ITestNGMethod method = proxy(ITestNGMethod.class, name -> switch (name) {
+            case "getMethodName" -> methodName;
+            case "getGroups" -> new String[0];
+            default -> null;
+        });
+        IClass testClass = proxy(IClass.class, name -> switch (name) {
+            case "getXmlTest" -> xmlTest;
+            case "getName" -> "com.cmccarthyirl.bench." + testName;
+            default -> null;
+        });
+        return proxy(ITestResult.class, name -> switch (name) {
+            case "getParameters" -> parameters;
+            case "getTestClass" -> testClass;
+            case "getMethod" -> method;
+            case "getStatus" -> ITestResult.SUCCESS;
+            default -> null;
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, java.util.function.Function<String, Object> answers) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> type.getSimpleName();
+                    default -> answers.apply(method.getName());
+                }));
+    }
+}
@@ -0,0 +1,64 @@
+package com.cmccarthyirl.common;
+
+import org.testng.IMethodInstance;
+import org.testng.IMethodInterceptor;
+import org.testng.ITestContext;
+
+import java.util.*;
+
+/**
+ * Reorders the test methods by their {@link RunHistory} when the suite is started with `-Dorder.mode=adaptive`, so a
+ * broken build shows up in the first minutes of a run rather than the last: the methods that failed in their recent
+ * runs go first, the one that failed most recently first, then the new methods, which have no history yet, then the
+ * rest, longest first, so the slowest methods do not hold up the end of a parallel run. Ties are broken by key, so the
+ * order does not depend on the order TestNG listed the methods in. Does nothing in the default `-Dorder.mode=testng`.
+ * <p>
+ * The methods of a shard are reordered the same way, whichever of this and the {@link ShardInterceptor} runs first.
+ */
+public class AdaptiveOrderInterceptor implements IMethodInterceptor {
+
+    private static final LogManager log = new LogManager(AdaptiveOrderInterceptor.class);
+
+    @Override
+    public List<IMethodInstance> intercept(List<IMethodInstance> methods, ITestContext context) {
+        if (!"adaptive".equalsIgnoreCase(System.getProperty("order.mode", "testng")) || methods.size() < 2) {
+            return methods;
+        }
+        RunHistory history = RunHistory.get();
+        Map<IMethodInstance, String> keys = new HashMap<>();
+        for (IMethodInstance method : methods) {
+            keys.put(method, RunHistory.key(method.getMethod()));
+        }
+        Comparator<IMethodInstance> order = Comparator
+                .comparingInt((IMethodInstance method) -> tier(history, keys.get(method)))
+                .thenComparing(method -> Objects.requireNonNullElse(history.lastFailure(keys.get(method)), 0))
+                .thenComparing(method -> Objects.requireNonNullElse(history.estimate(keys.get(method)), 0L),
+                        Comparator.reverseOrder())
+                .thenComparing(keys::get);
+        List<IMethodInstance> ordered = new ArrayList<>(methods);
+        ordered.sort(order);
+
+        int failing = 0;
+        int unknown = 0;
+        for (IMethodInstance method : ordered) {
+            switch (tier(history, keys.get(method))) {
+                case 0 -> failing++;
+                case 1 -> unknown++;
+                default -> {
+                }
+            }
+        }
+        log.info("Ordered the {} methods of {}: {} that failed lately, {} without history, then {} longest first",
+                ordered.size(), context.getName(), failing, unknown, ordered.size() - failing - unknown);
+        log.debug("Method order of {}: {}", context.getName(), ordered.stream().map(keys::get).toList());
+        return ordered;
+    }
+
+    // 0 for a method that failed in its recent runs, 1 for a new method, 2 for the rest
+    private static int tier(RunHistory history, String key) {
+        if (history.lastFailure(key) != null) {
+            return 0;
+        }
+        return history.getOutcomes(key) == 0 ? 1 : 2;
+    }
+}
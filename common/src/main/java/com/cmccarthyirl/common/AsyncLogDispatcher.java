@@ -0,0 +1,266 @@
+package com.cmccarthyirl.common;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.sift.SiftingAppenderBase;
+import ch.qos.logback.core.spi.ContextAwareBase;
+import org.slf4j.LoggerFactory;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Moves the report and log writes of {@link LogManager} off the test threads.
+ * Events are put on a bounded queue and a single background writer drains them in batches,
+ * writing the Extent logs and calling the logback appenders. Appenders that buffer their writes
+ * and implement {@link Flushable} (e.g. {@link SegmentedLogAppender}) are flushed once per batch;
+ * the stream appenders keep their own immediateFlush setting. Write failures go to the logback status manager.
+ */
+public class AsyncLogDispatcher extends ContextAwareBase {
+
+    public enum OverflowPolicy {
+        // The test thread waits for space in the queue
+        BLOCK,
+        // DEBUG (and TRACE) events are dropped when the queue is full, other events wait for space
+        DROP_DEBUG
+    }
+
+    private static final int MAX_BATCH = 512;
+
+    private final BlockingQueue<LogRecord> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final Thread writer;
+
+    // Counters
+    private final AtomicLong queued = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder totalFlushNanos = new LongAdder();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+
+    /**
+     * Creates the dispatcher and starts its background writer.
+     *
+     * @param capacity       the size of the queue
+     * @param overflowPolicy what to do when the queue is full
+     */
+    public AsyncLogDispatcher(int capacity, OverflowPolicy overflowPolicy) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        if (LoggerFactory.getILoggerFactory() instanceof LoggerContext loggerContext) {
+            setContext(loggerContext);
+        }
+        this.writer = new Thread(this::drain, "async-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Creates a dispatcher when the run is started with `-Dlog.mode=async`.
+     * The queue size (`log.queueSize`) and overflow policy (`log.overflow=block|drop-debug`) are configurable.
+     *
+     * @return the dispatcher, or null when logging is synchronous
+     */
+    public static AsyncLogDispatcher fromSystemProperties() {
+        if (!"async".equalsIgnoreCase(System.getProperty("log.mode", "sync"))) {
+            return null;
+        }
+        int capacity = Integer.parseInt(System.getProperty("log.queueSize", "8192"));
+        OverflowPolicy policy = OverflowPolicy.valueOf(
+                System.getProperty("log.overflow", "block").toUpperCase().replace('-', '_'));
+        return new AsyncLogDispatcher(capacity, policy);
+    }
+
+    /**
+     * Queues an event for the background writer. The event is prepared on the calling thread,
+     * so the thread name and MDC (e.g. the log file name) are those of the test.
+     *
+     * @param logger  the logger the event is written to
+     * @param level   the level of the event
+     * @param message the message
+     */
+    public void dispatch(Logger logger, Level level, String message) {
+        if (!logger.isEnabledFor(level)) {
+            return;
+        }
+        LoggingEvent event = new LoggingEvent(LogManager.class.getName(), logger, level, message, null, null);
+        event.prepareForDeferredProcessing();
+        enqueue(new LogRecord(logger, event, null, null), level.toInt() <= Level.DEBUG_INT);
+    }
+
+    /**
+     * Queues a write to the report, e.g. a test's buffered logs, for the background writer.
+     *
+     * @param reportWrite the report write to run on the writer thread
+     */
+    public void dispatch(Runnable reportWrite) {
+        enqueue(new LogRecord(null, null, reportWrite, null), false);
+    }
+
+    /**
+     * Blocks until every event queued before the call has been written.
+     */
+    public void flush() {
+        if (!writer.isAlive()) {
+            return;
+        }
+        // The marker is queued behind every earlier event and released once its batch has been written and flushed
+        CountDownLatch flushed = new CountDownLatch(1);
+        try {
+            queue.put(new LogRecord(null, null, null, flushed));
+            flushed.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getQueued() {
+        return queued.get();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public int getDepth() {
+        return queue.size();
+    }
+
+    public long getMaxFlushMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxFlushNanos.get());
+    }
+
+    public long getAverageFlushMicros() {
+        long count = batches.sum();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalFlushNanos.sum() / count);
+    }
+
+    /**
+     * Summarises the dispatcher counters in a single line.
+     *
+     * @return the dispatcher counters
+     */
+    public String describeMetrics() {
+        return "queued=" + getQueued() + ", dropped=" + getDropped() + ", batches=" + batches.sum()
+                + ", avgFlushUs=" + getAverageFlushMicros() + ", maxFlushUs=" + getMaxFlushMicros();
+    }
+
+    private void enqueue(LogRecord record, boolean debug) {
+        if (!queue.offer(record)) {
+            if (debug && overflowPolicy == OverflowPolicy.DROP_DEBUG) {
+                dropped.increment();
+                return;
+            }
+            try {
+                queue.put(record);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                dropped.increment();
+                return;
+            }
+        }
+        queued.incrementAndGet();
+    }
+
+    private void drain() {
+        List<LogRecord> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException ex) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            long start = System.nanoTime();
+            Set<Logger> loggers = new HashSet<>();
+            List<CountDownLatch> markers = new ArrayList<>();
+            for (LogRecord record : batch) {
+                if (record.flushed != null) {
+                    markers.add(record.flushed);
+                    continue;
+                }
+                write(record);
+                if (record.event != null) {
+                    loggers.add(record.logger);
+                }
+            }
+            flushAppenders(loggers);
+            long elapsed = System.nanoTime() - start;
+            batches.increment();
+            totalFlushNanos.add(elapsed);
+            maxFlushNanos.accumulateAndGet(elapsed, Math::max);
+            markers.forEach(CountDownLatch::countDown);
+            batch.clear();
+        }
+    }
+
+    private void write(LogRecord record) {
+        try {
+            if (record.reportWrite != null) {
+                record.reportWrite.run();
+            }
+            if (record.event != null) {
+                record.logger.callAppenders(record.event);
+            }
+        } catch (RuntimeException ex) {
+            // Never let a bad event stop the writer
+            addError("Failed to write a log event", ex);
+        }
+    }
+
+    // Only the buffering appenders are flushed here; each one takes its own lock in flush()
+    private void flushAppenders(Set<Logger> loggers) {
+        Set<Appender<ILoggingEvent>> appenders = new HashSet<>();
+        for (Logger logger : loggers) {
+            for (Logger current = logger; current != null; current = parent(current)) {
+                current.iteratorForAppenders().forEachRemaining(appenders::add);
+                if (!current.isAdditive()) {
+                    break;
+                }
+            }
+        }
+        for (Appender<ILoggingEvent> appender : appenders) {
+            if (appender instanceof SiftingAppenderBase<ILoggingEvent> sifting) {
+                sifting.getAppenderTracker().allComponents().forEach(this::flushAppender);
+            } else {
+                flushAppender(appender);
+            }
+        }
+    }
+
+    private void flushAppender(Appender<ILoggingEvent> appender) {
+        try {
+            if (appender instanceof Flushable flushable) {
+                flushable.flush();
+            }
+        } catch (IOException ex) {
+            addError("Failed to flush appender " + appender.getName(), ex);
+        }
+    }
+
+    private Logger parent(Logger logger) {
+        String name = logger.getName();
+        if (Logger.ROOT_LOGGER_NAME.equals(name)) {
+            return null;
+        }
+        int dot = name.lastIndexOf('.');
+        return logger.getLoggerContext().getLogger(dot < 0 ? Logger.ROOT_LOGGER_NAME : name.substring(0, dot));
+    }
+
+    private record LogRecord(Logger logger, LoggingEvent event, Runnable reportWrite, CountDownLatch flushed) {
+    }
+}
@@ -0,0 +1,235 @@
+package com.cmccarthyirl.common;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stores the files attached to the report (screenshots, traces, page HTML) next to it, in
+ * `target/spark-reports/attachments/`, rather than inlining them in the HTML, so the report stays small however many
+ * tests fail. A file is stored once per SHA-256 of its content, e.g. `attachments/3f/3fa9....png`, and referenced
+ * from the report by that path, relative to the report. The same screenshot taken by ten failed tests is stored once.
+ * <p>
+ * Thumbnails of images are only made when a thumbnail is first asked for, once per image.
+ */
+public class AttachmentStore {
+
+    private static final LogManager log = new LogManager(AttachmentStore.class);
+    private static final int THUMBNAIL_WIDTH = 320;
+    private static final AttachmentStore instance = new AttachmentStore(Paths.get(ExtentReporter.REPORT_PATH).getParent());
+
+    private final Path reportDirectory;
+    private final Path root;
+    // The path of each image's thumbnail, relative to the report, or the image itself when it is small enough
+    private final Map<String, String> thumbnails = new ConcurrentHashMap<>();
+
+    // Counters
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder deduplicatedBytes = new LongAdder();
+    private final LongAdder thumbnailCount = new LongAdder();
+
+    /**
+     * Creates a store for the report in a directory.
+     *
+     * @param reportDirectory the directory of the report, which gets the attachments folder
+     */
+    public AttachmentStore(Path reportDirectory) {
+        this.reportDirectory = reportDirectory.toAbsolutePath();
+        this.root = this.reportDirectory.resolve("attachments");
+    }
+
+    /**
+     * Gets the store of the Spark report.
+     *
+     * @return the attachment store
+     */
+    public static AttachmentStore get() {
+        return instance;
+    }
+
+    /**
+     * Stores a file's content, unless the same content is stored already.
+     *
+     * @param content   the content
+     * @param extension the file extension, e.g. png
+     * @return the stored attachment
+     */
+    public Attachment put(byte[] content, String extension) {
+        String hash = HexFormat.of().formatHex(digest().digest(content));
+        Path file = pathOf(hash, extension);
+        if (Files.exists(file)) {
+            return deduplicated(hash, file, content.length);
+        }
+        try {
+            Path temporary = createTempFile(extension);
+            Files.write(temporary, content);
+            return store(hash, temporary, file, content.length);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Moves a file into the store, or deletes it when the same content is stored already.
+     *
+     * @param source    the file, e.g. one made with {@link #createTempFile(String)}
+     * @param extension the file extension, e.g. zip
+     * @return the stored attachment
+     */
+    public Attachment put(Path source, String extension) {
+        try {
+            MessageDigest digest = digest();
+            try (InputStream in = new DigestInputStream(Files.newInputStream(source), digest)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+            long size = Files.size(source);
+            Path file = pathOf(hash, extension);
+            if (Files.exists(file)) {
+                Files.deleteIfExists(source);
+                return deduplicated(hash, file, size);
+            }
+            return store(hash, source, file, size);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Creates an empty file in the store's temporary folder, on the same disk as the store, so it can be moved in
+     * with {@link #put(Path, String)} without being copied.
+     *
+     * @param extension the file extension, e.g. zip
+     * @return the temporary file
+     * @throws IOException if the file cannot be created
+     */
+    public Path createTempFile(String extension) throws IOException {
+        Path temporary = root.resolve("tmp");
+        Files.createDirectories(temporary);
+        return Files.createTempFile(temporary, "attachment", "." + extension);
+    }
+
+    /**
+     * Gets the thumbnail of a stored image, making it the first time it is asked for.
+     * Images no wider than the thumbnail are their own thumbnail.
+     *
+     * @param image a stored image
+     * @return the path of the thumbnail relative to the report, or the image's own path when no thumbnail can be made
+     */
+    public String thumbnail(Attachment image) {
+        return thumbnails.computeIfAbsent(image.hash(), hash -> {
+            Path file = reportDirectory.resolve(image.path());
+            Path thumbnail = file.resolveSibling(hash + ".thumb.png");
+            try {
+                // A thumbnail made by an earlier run is still valid, as it is named after the image's content
+                if (!Files.exists(thumbnail)) {
+                    BufferedImage source = ImageIO.read(file.toFile());
+                    if (source == null || source.getWidth() <= THUMBNAIL_WIDTH) {
+                        return image.path();
+                    }
+                    int height = Math.max(1, source.getHeight() * THUMBNAIL_WIDTH / source.getWidth());
+                    BufferedImage scaled = new BufferedImage(THUMBNAIL_WIDTH, height, BufferedImage.TYPE_INT_RGB);
+                    Graphics2D graphics = scaled.createGraphics();
+                    try {
+                        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                        graphics.drawImage(source, 0, 0, THUMBNAIL_WIDTH, height, null);
+                    } finally {
+                        graphics.dispose();
+                    }
+                    Path temporary = createTempFile("png");
+                    ImageIO.write(scaled, "png", temporary.toFile());
+                    Files.move(temporary, thumbnail, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    thumbnailCount.increment();
+                }
+                return relativize(thumbnail);
+            } catch (IOException ex) {
+                log.warn("Failed to make a thumbnail of {}: {}", image.path(), ex.getMessage());
+                return image.path();
+            }
+        });
+    }
+
+    /**
+     * Summarises the store counters in a single line.
+     *
+     * @return the store counters, or null when nothing was attached
+     */
+    public String describeMetrics() {
+        if (stored.sum() == 0 && deduplicated.sum() == 0) {
+            return null;
+        }
+        return "stored=" + stored.sum() + ", storedBytes=" + storedBytes.sum() + ", deduplicated=" + deduplicated.sum()
+                + ", deduplicatedBytes=" + deduplicatedBytes.sum() + ", thumbnails=" + thumbnailCount.sum();
+    }
+
+    // Moves a file into place in one step, so a reader never sees half of it
+    private Attachment store(String hash, Path source, Path file, long size) throws IOException {
+        Files.createDirectories(file.getParent());
+        try {
+            Files.move(source, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            if (!Files.exists(file)) {
+                throw ex;
+            }
+            // Another thread stored the same content first
+            Files.deleteIfExists(source);
+            return deduplicated(hash, file, size);
+        }
+        stored.increment();
+        storedBytes.add(size);
+        return new Attachment(hash, relativize(file), size, true);
+    }
+
+    private Attachment deduplicated(String hash, Path file, long size) {
+        deduplicated.increment();
+        deduplicatedBytes.add(size);
+        return new Attachment(hash, relativize(file), size, false);
+    }
+
+    private Path pathOf(String hash, String extension) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash + "." + extension.toLowerCase(Locale.ROOT));
+    }
+
+    private String relativize(Path file) {
+        return reportDirectory.relativize(file).toString().replace('\\', '/');
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * A file in the store.
+     *
+     * @param hash  the SHA-256 of its content
+     * @param path  its path relative to the report, to link it from the report
+     * @param size  its size in bytes
+     * @param added whether it was added by this call, rather than stored already
+     */
+    public record Attachment(String hash, String path, long size, boolean added) {
+    }
+}
@@ -2,29 +2,149 @@ package com.cmccarthyirl.common;
 
 import com.aventstack.extentreports.AnalysisStrategy;
 import com.aventstack.extentreports.ExtentReports;
+import com.aventstack.extentreports.ExtentTest;
 import com.aventstack.extentreports.reporter.ExtentSparkReporter;
 import com.aventstack.extentreports.reporter.configuration.Theme;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+
 public class ExtentReporter {
 
+    public static final String REPORT_PATH = "target/spark-reports/spark-report.html";
+    public static final String JOURNAL_PATH = "target/spark-reports/journal.jsonl";
+
+    private static final LogManager log = new LogManager(ExtentReporter.class);
+
     public static final ExtentReports extent = GetReporter.extent;
 
+    /**
+     * Gets the report journal. It is only used when the run is started with `-Dreport.mode=journal`,
+     * in which case the events are journalled during the run and the Spark report is rendered once at the end.
+     *
+     * @return the journal, or null when the Spark report is written directly
+     */
+    public static ReportJournal getJournal() {
+        return GetReporter.journal;
+    }
+
+    /**
+     * Creates a top-level test in the report.
+     *
+     * @param name        the name of the test
+     * @param description the description of the test
+     * @return the created test
+     */
+    public static ExtentTest createTest(String name, String description) {
+        ExtentTest test = extent.createTest(name, description);
+        if (getJournal() != null) {
+            getJournal().testCreated(test, null, name, description);
+        }
+        return test;
+    }
+
+    /**
+     * Adds a name/value pair to the report's system info.
+     *
+     * @param key   the name of the system info
+     * @param value the value of the system info
+     */
+    public static void setSystemInfo(String key, String value) {
+        extent.setSystemInfo(key, value);
+        if (getJournal() != null) {
+            getJournal().systemInfo(key, value);
+        }
+    }
+
+    /**
+     * Writes the report. In journal mode this only pushes the new events to the journal,
+     * otherwise the whole Spark report is re-rendered.
+     */
+    public static void flush() {
+        PhaseTimings.time("report.flush", () -> {
+            LogManager.commitAll();
+            LogManager.flush();
+            if (getJournal() != null) {
+                getJournal().flush();
+            } else {
+                extent.flush();
+            }
+        });
+    }
+
+    /**
+     * Writes the final report once the suite has finished.
+     * In journal mode the journal is closed and the Spark report is rendered from it.
+     */
+    public static void complete() {
+        LogManager.commitAll();
+        LogManager.flush();
+        if (LogManager.getDispatcher() != null) {
+            setSystemInfo("Async logging", LogManager.getDispatcher().describeMetrics());
+        }
+        if (AttachmentStore.get().describeMetrics() != null) {
+            setSystemInfo("Attachments", AttachmentStore.get().describeMetrics());
+        }
+        if (getJournal() == null) {
+            extent.flush();
+            return;
+        }
+        getJournal().close();
+        if (GetReporter.shard != null) {
+            // The fragments of every shard are rendered together by JournalRenderer
+            log.info("Wrote the report fragment of shard {} to {}", GetReporter.shard, getJournal().getPath());
+            return;
+        }
+        try {
+            JournalRenderer.render(Paths.get(REPORT_PATH), getJournal().getPath());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Creates a Spark reporter with the harness' report configuration.
+     *
+     * @param path the path of the HTML report
+     * @return the configured Spark reporter
+     */
+    public static ExtentSparkReporter createSparkReporter(String path) {
+        ExtentSparkReporter spark = new ExtentSparkReporter(path);
+        spark.config().setTheme(Theme.STANDARD);
+        spark.config().setReportName("Playwright Test Report");
+        spark.config().setDocumentTitle("Playwright Automation");
+        spark.config().setEncoding("UTF-8");
+        spark.config().setTimelineEnabled(true);
+        // The CSS, scripts and fonts are copied next to the report once, instead of being loaded from a CDN
+        spark.config().enableOfflineMode(true);
+        spark.config().setTimeStampFormat("MMM dd, yyyy HH:mm:ss");
+        spark.config().setCss(".col-md-3{-webkit-box-flex:0;-ms-flex:0 0 20%;flex:0 0 20%;max-width:20%}.text-skip {color: #e68A00 !important;}");
+        return spark;
+    }
+
     private static class GetReporter {
 
         public static final ExtentReports extent = new ExtentReports();
-        private static final ExtentSparkReporter spark = new ExtentSparkReporter("target/spark-reports/spark-report.html");
+        private static final TestShard shard = TestShard.fromSystemProperties();
+        private static final ReportJournal journal;
 
         static {
-            spark.config().setTheme(Theme.STANDARD);
-            spark.config().setReportName("Playwright Test Report");
-            spark.config().setDocumentTitle("Playwright Automation");
-            spark.config().setEncoding("UTF-8");
-            spark.config().setTimelineEnabled(true);
-            spark.config().enableOfflineMode(false);
-            spark.config().setTimeStampFormat("MMM dd, yyyy HH:mm:ss");
-            spark.config().setCss(".col-md-3{-webkit-box-flex:0;-ms-flex:0 0 20%;flex:0 0 20%;max-width:20%}.text-skip {color: #e68A00 !important;}");
-            extent.attachReporter(spark);
+            if (shard != null || "journal".equalsIgnoreCase(System.getProperty("report.mode", "spark"))) {
+                // The Spark report is rendered from the journal at the end of the run, or from the journals of
+                // every shard once they have all run
+                try {
+                    journal = new ReportJournal(Paths.get(shard == null
+                            ? JOURNAL_PATH
+                            : JOURNAL_PATH.replace(".jsonl", "-" + shard.getName() + ".jsonl")));
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            } else {
+                journal = null;
+                extent.attachReporter(createSparkReporter(REPORT_PATH));
+            }
             extent.setAnalysisStrategy(AnalysisStrategy.TEST);
         }
     }
-}
\ No newline at end of file
+}
@@ -2,18 +2,20 @@ package com.cmccarthyirl.common;
 
 import com.aventstack.extentreports.ExtentTest;
 import com.aventstack.extentreports.Status;
-import com.aventstack.extentreports.model.Test;
 import org.testng.ITestResult;
 
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 
 public class ExtentTests {
 
-    // Map to store ExtentTest objects by class name
-    private static final Map<String, ExtentTest> classTestMap = new HashMap<>();
+    // Concurrent registries of ExtentTest nodes, keyed by class and class/method.
+    // Reads are lock-free; a node is only created once per key, whichever thread gets there first.
+    private static final ConcurrentMap<String, ExtentTest> classTestMap = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, ExtentTest> methodTestMap = new ConcurrentHashMap<>();
 
     // ThreadLocal variables to store ExtentTest objects specific to each thread (method and data provider)
     private static final ThreadLocal<ExtentTest> methodTest = new ThreadLocal<>();
@@ -45,75 +47,143 @@ public class ExtentTests {
 
     // Create a test under the class test (hierarchical structure)
     private static void createTestWithClassHierarchy(ITestResult result) {
-        String className = result.getTestContext().getName();
-        String methodName = result.getMethod().getMethodName();
+        String className = result.getTestClass().getXmlTest().getName();
         String description = result.getMethod().getDescription();
 
-        // Check if a class-level test already exists, if not, create it
-        ExtentTest classTest = classTestMap.computeIfAbsent(className,
-                key -> ExtentReporter.extent.createTest(className, description));
+        // Look up the class-level test, creating it if this is the first method of the class
+        ExtentTest classTest = lookup(classTestMap, className,
+                key -> ExtentReporter.createTest(className, description));
+
+        // Look up the method-level test under the class test, creating it if necessary
+        ExtentTest methodNode = lookup(methodTestMap, methodKey(result),
+                key -> createTest(result, classTest));
+        methodTest.set(methodNode);
 
-        // Check if method-level test already exists for the class test
-        Optional<Test> existingMethodTest = classTest.getModel().getChildren().stream()
-                .filter(test -> test.getName().equals(methodName))
-                .findFirst();
+        setDataProviderTest(result, methodNode);
+    }
 
-        // If there are parameters (data provider), create the parameterized test
+    // Create or update the test method without a class hierarchy
+    private static void createOrUpdateTestMethod(ITestResult result) {
         if (result.getParameters().length > 0) {
-            // If method test does not exist, create it
-            if (existingMethodTest.isEmpty()) {
-                createTest(result, classTest);
-            }
-            // Create a test node for the data provider parameters
-            String paramName = Arrays.toString(result.getParameters());
-            ExtentTest paramTest = methodTest.get().createNode(paramName);
-            dataProviderTest.set(paramTest);
+            // Data provider rows share a single method-level test, whichever thread runs them
+            ExtentTest methodNode = lookup(methodTestMap, methodKey(result), key -> createTest(result, null));
+            methodTest.set(methodNode);
         } else {
-            // If no parameters, remove the data provider test and create/update the method test
-            dataProviderTest.remove();
-            createTest(result, classTest);
+            // Each invocation of a method without parameters gets its own test
+            methodTest.set(createTest(result, null));
         }
 
-        methodTest.get(); // Ensures that the methodTest is properly initialized
+        setDataProviderTest(result, methodTest.get());
     }
 
-    // Create or update the test method without a class hierarchy
-    private static void createOrUpdateTestMethod(ITestResult result) {
-        String methodName = result.getMethod().getMethodName();
-
-        // If there are parameters, create/update test method with parameters (data provider test)
+    // Set the data provider test for the current thread, creating a node for the parameters under the method test.
+    // Every invocation gets its own node, so duplicate rows and retries of a row are reported apart.
+    private static void setDataProviderTest(ITestResult result, ExtentTest methodNode) {
         if (result.getParameters().length > 0) {
-            // If methodTest does not exist or its name does not match, create a new test
-            if (methodTest.get() == null || !methodTest.get().getModel().getName().equals(methodName)) {
-                createTest(result, null);
-            }
-            // Create a test node for the data provider parameters
-            String paramName = Arrays.toString(result.getParameters());
-            ExtentTest paramTest = methodTest.get().createNode(paramName);
-            dataProviderTest.set(paramTest);
+            dataProviderTest.set(createNode(methodNode, Arrays.toString(result.getParameters()), null));
         } else {
-            // Remove data provider test if no parameters and create/update the method test
             dataProviderTest.remove();
-            createTest(result, null);
         }
+    }
 
-        methodTest.get(); // Ensures that the methodTest is properly initialized
+    // Lock-free lookup that only falls back to computeIfAbsent when the node has not been created yet
+    private static ExtentTest lookup(ConcurrentMap<String, ExtentTest> registry, String key,
+                                     Function<String, ExtentTest> factory) {
+        ExtentTest test = registry.get(key);
+        return test != null ? test : registry.computeIfAbsent(key, factory);
+    }
+
+    // Build the registry key for a test method: TestNG test name, class name and method name
+    private static String methodKey(ITestResult result) {
+        return result.getTestClass().getXmlTest().getName() + "#" + result.getTestClass().getName()
+                + "#" + result.getMethod().getMethodName();
     }
 
     // Create a new ExtentTest (either method-level or class-level)
-    private static void createTest(ITestResult result, ExtentTest classTest) {
+    private static ExtentTest createTest(ITestResult result, ExtentTest classTest) {
         String methodName = result.getMethod().getMethodName();
         String description = result.getMethod().getDescription();
 
         // If classTest is provided, create a node under the class test; otherwise, create a top-level test
         ExtentTest test = (classTest != null)
-                ? classTest.createNode(methodName, description)
-                : ExtentReporter.extent.createTest(methodName, description);
+                ? createNode(classTest, methodName, description)
+                : ExtentReporter.createTest(methodName, description);
 
-        // Set the current methodTest to the created test
-        methodTest.set(test);
         // Assign groups to the test (e.g., device, author, tag)
         assignGroups(test, result.getMethod().getGroups());
+        // And the groups of its TestNG test, e.g. the device of each engine of a matrix suite
+        String reportGroups = result.getTestClass().getXmlTest().getParameter("reportGroups");
+        if (reportGroups != null) {
+            assignGroups(test, reportGroups.split("\\s*,\\s*"));
+        }
+        return test;
+    }
+
+    // Create a child node under the parent test, recording it in the report journal if one is in use
+    private static ExtentTest createNode(ExtentTest parent, String name, String description) {
+        ExtentTest node = parent.createNode(name, description);
+        if (ExtentReporter.getJournal() != null) {
+            ExtentReporter.getJournal().testCreated(node, parent, name, description);
+        }
+        return node;
+    }
+
+    // Log a message against a test, recording it in the report journal if one is in use
+    public static void log(ExtentTest test, Status status, String details) {
+        test.log(status, details);
+        if (ExtentReporter.getJournal() != null) {
+            ExtentReporter.getJournal().logged(test, status, details);
+        }
+    }
+
+    // Log an exception against a test, recording it in the report journal if one is in use
+    public static void log(ExtentTest test, Status status, Throwable throwable) {
+        test.log(status, throwable);
+        if (ExtentReporter.getJournal() != null) {
+            ExtentReporter.getJournal().logged(test, status, throwable);
+        }
+    }
+
+    // Record the outcome of a finished test: failures and skips are logged with their cause
+    public static void finishTest(ITestResult result) {
+        ExtentTest test = getTest(result);
+        if (test == null || !isTestFor(test, result)) {
+            // The test failed or was skipped before its node was created (e.g. in a configuration method)
+            return;
+        }
+        // Commit the test's buffered logs, so the outcome is logged after them
+        LogManager.commit();
+        Status status = mapStatus(result.getStatus());
+        Throwable throwable = result.getThrowable();
+        Runnable outcome = () -> logOutcome(test, status, throwable);
+        if (LogManager.getDispatcher() != null) {
+            // Queued behind the committed logs, as the async writer runs its queue in order
+            LogManager.getDispatcher().dispatch(outcome);
+        } else {
+            outcome.run();
+        }
+    }
+
+    // Log a failure or skip with its cause, and record the end of the test in the report journal if one is in use
+    private static void logOutcome(ExtentTest test, Status status, Throwable throwable) {
+        if (status != Status.PASS) {
+            if (throwable != null) {
+                log(test, status, throwable);
+            } else {
+                log(test, status, "Test " + status.toString().toLowerCase());
+            }
+        }
+        if (ExtentReporter.getJournal() != null) {
+            ExtentReporter.getJournal().testFinished(test, status);
+        }
+    }
+
+    // Check that the node is the one created for this result, rather than one left behind by a previous test
+    private static boolean isTestFor(ExtentTest test, ITestResult result) {
+        String expectedName = result.getParameters().length > 0
+                ? Arrays.toString(result.getParameters())
+                : result.getMethod().getMethodName();
+        return test.getModel().getName().equals(expectedName);
     }
 
     // Assign groups to a test (groups could represent devices, authors, categories, etc.)
@@ -122,19 +192,31 @@ public class ExtentTests {
             Arrays.stream(groups).forEach(group -> {
                 // Check if the group represents a device, author, or category and assign accordingly
                 if (group.startsWith("d:") || group.startsWith("device:")) {
-                    test.assignDevice(group.replaceAll("d:|device:", ""));
+                    assignAttribute(test, "device", group.replaceAll("d:|device:", ""));
                 } else if (group.startsWith("a:") || group.startsWith("author:")) {
-                    test.assignAuthor(group.replaceAll("a:|author:", ""));
+                    assignAttribute(test, "author", group.replaceAll("a:|author:", ""));
                 } else if (group.startsWith("t:") || group.startsWith("tag:")) {
-                    test.assignCategory(group.replaceAll("t:|tag:", ""));
+                    assignAttribute(test, "category", group.replaceAll("t:|tag:", ""));
                 } else {
                     // Assign other groups as categories
-                    test.assignCategory(group);
+                    assignAttribute(test, "category", group);
                 }
             });
         }
     }
 
+    // Assign a device, author or category to a test, recording it in the report journal if one is in use
+    private static void assignAttribute(ExtentTest test, String kind, String value) {
+        switch (kind) {
+            case "device" -> test.assignDevice(value);
+            case "author" -> test.assignAuthor(value);
+            default -> test.assignCategory(value);
+        }
+        if (ExtentReporter.getJournal() != null) {
+            ExtentReporter.getJournal().attributeAssigned(test, kind, value);
+        }
+    }
+
     // Map TestNG status code to ExtentReports status (PASS, FAIL, SKIP)
     private static Status mapStatus(int statusCode) {
         switch (statusCode) {
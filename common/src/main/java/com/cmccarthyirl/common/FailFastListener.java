@@ -0,0 +1,65 @@
+package com.cmccarthyirl.common;
+
+import org.testng.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stops a run early when the suite is started with `-Dfailfast=K`: once K tests have failed, the tests that have not
+ * started yet are skipped, along with their @BeforeMethod setup, so a broken build does not hold a CI node for the
+ * rest of the run. Tests already running finish as usual. Combined with the {@link AdaptiveOrderInterceptor}, the
+ * tests that failed lately run first, so a build that is still broken stops within the first few tests.
+ * Does nothing by default.
+ */
+public class FailFastListener implements ITestListener, IInvokedMethodListener {
+
+    private static final LogManager log = new LogManager(FailFastListener.class);
+    private static final int limit = Integer.getInteger("failfast", 0);
+    private static final AtomicInteger failures = new AtomicInteger();
+    private static final LongAdder skipped = new LongAdder();
+
+    @Override
+    public void onTestFailure(ITestResult result) {
+        if (limit > 0 && failures.incrementAndGet() == limit) {
+            log.warn("{} tests failed, skipping the tests that have not started yet (-Dfailfast={})", limit, limit);
+        }
+    }
+
+    @Override
+    public void beforeInvocation(IInvokedMethod method, ITestResult testResult) {
+        if (!isTripped()) {
+            return;
+        }
+        // Teardown still runs, so the browsers and request contexts are closed
+        if (method.isTestMethod() || method.getTestMethod().isBeforeMethodConfiguration()) {
+            if (method.isTestMethod()) {
+                skipped.increment();
+            }
+            throw new SkipException("Skipped after " + failures.get() + " failures (-Dfailfast=" + limit + ")");
+        }
+    }
+
+    /**
+     * Checks whether enough tests have failed to skip the rest.
+     *
+     * @return true when fail fast is on and the limit has been reached
+     */
+    public static boolean isTripped() {
+        return limit > 0 && failures.get() >= limit;
+    }
+
+    /**
+     * Describes the fail fast state for the report.
+     *
+     * @return a description, or null when fail fast is off
+     */
+    public static String describeMetrics() {
+        if (limit <= 0) {
+            return null;
+        }
+        return isTripped()
+                ? "stopped after " + limit + " failures, " + skipped.sum() + " tests skipped"
+                : failures.get() + " of " + limit + " failures";
+    }
+}
@@ -0,0 +1,224 @@
+package com.cmccarthyirl.common;
+
+import com.aventstack.extentreports.AnalysisStrategy;
+import com.aventstack.extentreports.ExtentReports;
+import com.aventstack.extentreports.ExtentTest;
+import com.aventstack.extentreports.Status;
+import com.aventstack.extentreports.model.ExceptionInfo;
+import com.aventstack.extentreports.model.Log;
+import com.aventstack.extentreports.model.Test;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Renders the Spark HTML report from one or more {@link ReportJournal} files.
+ * It can also be run on its own to render the partial journal left behind by a killed run, or to merge the report
+ * fragments of a sharded run, given the journals or the directories they were collected in. Each shard journals its
+ * own class-level tests and system info, so the top-level tests that have nodes are merged by name across journals,
+ * and a system info key is shown once, with the distinct values of every journal:
+ * <pre>
+ * java -cp common/target/classes:&lt;classpath&gt; com.cmccarthyirl.common.JournalRenderer target/spark-reports/journal.jsonl
+ * java -cp common/target/classes:&lt;classpath&gt; com.cmccarthyirl.common.JournalRenderer fragments/ -o report.html
+ * </pre>
+ */
+public class JournalRenderer {
+
+    private static final LogManager log = new LogManager(JournalRenderer.class);
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: JournalRenderer <journal.jsonl|directory>... [-o <report.html>]");
+            System.exit(1);
+        }
+        Path report = Paths.get(ExtentReporter.REPORT_PATH);
+        List<Path> journals = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-o".equals(args[i]) && i + 1 < args.length) {
+                report = Paths.get(args[++i]);
+            } else {
+                journals.addAll(journals(Paths.get(args[i])));
+            }
+        }
+        render(report, journals.toArray(new Path[0]));
+        System.out.println("Rendered " + report.toAbsolutePath());
+    }
+
+    /**
+     * Replays the journals into a fresh ExtentReports instance and writes the Spark report once.
+     * A truncated or malformed line (e.g. the last line of a killed run) is skipped. A top-level test with nodes
+     * that an earlier journal already has, e.g. the same class in another shard, gets its nodes added to the earlier one.
+     *
+     * @param report   the Spark HTML report to write
+     * @param journals the journals to replay, in order
+     * @return the number of events replayed
+     * @throws IOException if a journal cannot be read
+     */
+    public static long render(Path report, Path... journals) throws IOException {
+        long start = System.currentTimeMillis();
+        ExtentReports extent = new ExtentReports();
+        extent.attachReporter(ExtentReporter.createSparkReporter(report.toString()));
+        extent.setAnalysisStrategy(AnalysisStrategy.TEST);
+
+        long events = 0;
+        Replay replay = new Replay(extent);
+        for (int index = 0; index < journals.length; index++) {
+            // Test ids are only unique within a journal, so each journal gets its own lookup
+            replay.tests.clear();
+            try (BufferedReader reader = Files.newBufferedReader(journals[index], StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    try {
+                        replay.replay(JsonParser.parseString(line).getAsJsonObject());
+                        events++;
+                    } catch (JsonParseException | IllegalStateException ex) {
+                        log.warn("Skipped a malformed journal line in {}: {}", journals[index], ex.getMessage());
+                    }
+                }
+            }
+            replay.endJournal();
+        }
+        replay.systemInfo.forEach((key, values) -> extent.setSystemInfo(key, String.join("; ", values)));
+        extent.flush();
+        log.info("Rendered {} journal events into {} in {} ms", events, report, System.currentTimeMillis() - start);
+        return events;
+    }
+
+    // A journal, or the journals in a directory (and its subdirectories, e.g. one per CI node) in name order
+    private static List<Path> journals(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return List.of(path);
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".jsonl")).sorted().toList();
+        }
+    }
+
+    private static String optionalString(JsonObject event, String key) {
+        return event.has(key) && !event.get(key).isJsonNull() ? event.get(key).getAsString() : null;
+    }
+
+    private static Log lastLog(Test test) {
+        List<Log> logs = test.getLogs();
+        return logs.get(logs.size() - 1);
+    }
+
+    // The state of a render: the tests of the current journal, and what is merged across journals
+    private static class Replay {
+
+        private final ExtentReports extent;
+        private final Map<Long, ExtentTest> tests = new HashMap<>();
+        // The top-level tests with nodes of the earlier journals, and those of the current journal, by name
+        private final Map<String, ExtentTest> parents = new HashMap<>();
+        private final Map<String, ExtentTest> journalParents = new HashMap<>();
+        private final Map<String, Set<String>> systemInfo = new LinkedHashMap<>();
+
+        private Replay(ExtentReports extent) {
+            this.extent = extent;
+        }
+
+        private void endJournal() {
+            journalParents.forEach(parents::putIfAbsent);
+            journalParents.clear();
+        }
+
+        private void replay(JsonObject event) {
+            String type = event.get("type").getAsString();
+            Date time = new Date(event.get("time").getAsLong());
+
+            if (ReportJournal.SYSTEM_INFO.equals(type)) {
+                systemInfo.computeIfAbsent(event.get("key").getAsString(), key -> new LinkedHashSet<>())
+                        .add(event.get("value").getAsString());
+                return;
+            }
+
+            long id = event.get("id").getAsLong();
+            if (ReportJournal.TEST.equals(type)) {
+                String name = event.get("name").getAsString();
+                String description = optionalString(event, "description");
+                ExtentTest parent = event.has("parent") ? tests.get(event.get("parent").getAsLong()) : null;
+                if (parent == null && parents.containsKey(name)) {
+                    // Reused as is, its start time stays that of the earliest journal
+                    tests.put(id, parents.get(name));
+                    return;
+                }
+                if (parent != null && parent.getModel().getParent() == null) {
+                    journalParents.putIfAbsent(parent.getModel().getName(), parent);
+                }
+                ExtentTest test = parent != null
+                        ? parent.createNode(name, description)
+                        : extent.createTest(name, description);
+                test.getModel().setStartTime(time);
+                test.getModel().setEndTime(time);
+                tests.put(id, test);
+                return;
+            }
+
+            ExtentTest test = tests.get(id);
+            if (test == null) {
+                // The test was created in a part of the journal that was lost
+                return;
+            }
+            switch (type) {
+                case ReportJournal.ATTRIBUTE -> {
+                    String value = event.get("value").getAsString();
+                    switch (event.get("kind").getAsString()) {
+                        case "device" -> test.assignDevice(value);
+                        case "author" -> test.assignAuthor(value);
+                        default -> test.assignCategory(value);
+                    }
+                }
+                case ReportJournal.LOG -> {
+                    Status status = Status.valueOf(event.get("status").getAsString());
+                    if (event.has("exception")) {
+                        test.log(status, new JournalledException());
+                        ExceptionInfo info = lastLog(test.getModel()).getException();
+                        info.setName(event.get("exception").getAsString());
+                        info.setStackTrace(event.get("stackTrace").getAsString());
+                    } else {
+                        test.log(status, optionalString(event, "details"));
+                    }
+                    lastLog(test.getModel()).setTimestamp(time);
+                    extendTo(test, time);
+                }
+                case ReportJournal.FINISH -> extendTo(test, time);
+                default -> log.warn("Skipped an unknown journal event: {}", type);
+            }
+        }
+
+        // A merged test ends when the last of its journals does
+        private static void extendTo(ExtentTest test, Date time) {
+            if (test.getModel().getEndTime() == null || time.after(test.getModel().getEndTime())) {
+                test.getModel().setEndTime(time);
+            }
+        }
+    }
+
+    // Placeholder used to create the exception entry, whose name and stack trace are then taken from the journal
+    private static class JournalledException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        JournalledException() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -1,12 +1,34 @@
 package com.cmccarthyirl.common;
 
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
 import com.aventstack.extentreports.ExtentTest;
 import com.aventstack.extentreports.Status;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.helpers.MessageFormatter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 public class LogManager {
 
+    // Background writer used when the run is started with -Dlog.mode=async, otherwise null
+    private static final AsyncLogDispatcher dispatcher = AsyncLogDispatcher.fromSystemProperties();
+
+    // Report logs of the running test, committed to its ExtentTest in one batch when the test finishes
+    private static final ThreadLocal<TestLogBuffer> bufferThreadLocal = ThreadLocal.withInitial(LogManager::newBuffer);
+    private static final Set<TestLogBuffer> buffers = ConcurrentHashMap.newKeySet();
+
+    static {
+        // On exit, write what the async writer still has queued and then stop the appenders,
+        // so the log store index is complete. A single hook keeps the two in that order.
+        Runtime.getRuntime().addShutdownHook(new Thread(LogManager::shutdown, "log-shutdown"));
+    }
+
     private final Logger logger;
 
     public LogManager(Class<?> aClass) {
@@ -17,35 +39,239 @@ public class LogManager {
         }
     }
 
-    public void info(String string) {
-        ExtentTest currentTest = ExtentTests.getTest();
-        if (currentTest != null) {
-            ExtentTests.getTest().log(Status.INFO, string);
+    // Messages can be plain strings, use {} placeholders, or be built by a Supplier.
+    // Nothing is formatted, built or written to the report when the level is disabled.
+
+    public void info(String message) {
+        if (logger.isInfoEnabled()) {
+            log(Level.INFO, message);
         }
-        logger.info(string);
     }
 
-    public void debug(String string) {
-        ExtentTest currentTest = ExtentTests.getTest();
-        if (currentTest != null) {
-            ExtentTests.getTest().log(Status.INFO, string);
+    public void info(String format, Object arg) {
+        if (logger.isInfoEnabled()) {
+            log(Level.INFO, MessageFormatter.format(format, arg).getMessage());
         }
-        logger.debug(string);
     }
 
-    public void warn(String string) {
-        ExtentTest currentTest = ExtentTests.getTest();
-        if (currentTest != null) {
-            ExtentTests.getTest().log(Status.INFO, string);
+    public void info(String format, Object arg1, Object arg2) {
+        if (logger.isInfoEnabled()) {
+            log(Level.INFO, MessageFormatter.format(format, arg1, arg2).getMessage());
+        }
+    }
+
+    public void info(String format, Object... args) {
+        if (logger.isInfoEnabled()) {
+            log(Level.INFO, MessageFormatter.arrayFormat(format, args).getMessage());
+        }
+    }
+
+    public void info(Supplier<String> message) {
+        if (logger.isInfoEnabled()) {
+            log(Level.INFO, message.get());
+        }
+    }
+
+    // The report gets its own version of the message, e.g. one laid out with HTML line breaks
+    public void info(Supplier<String> message, Supplier<String> reportMessage) {
+        if (logger.isInfoEnabled()) {
+            log(Level.INFO, message.get(), reportMessage.get());
+        }
+    }
+
+    public void debug(String message) {
+        if (logger.isDebugEnabled()) {
+            log(Level.DEBUG, message);
+        }
+    }
+
+    public void debug(String format, Object arg) {
+        if (logger.isDebugEnabled()) {
+            log(Level.DEBUG, MessageFormatter.format(format, arg).getMessage());
+        }
+    }
+
+    public void debug(String format, Object arg1, Object arg2) {
+        if (logger.isDebugEnabled()) {
+            log(Level.DEBUG, MessageFormatter.format(format, arg1, arg2).getMessage());
+        }
+    }
+
+    public void debug(String format, Object... args) {
+        if (logger.isDebugEnabled()) {
+            log(Level.DEBUG, MessageFormatter.arrayFormat(format, args).getMessage());
+        }
+    }
+
+    public void debug(Supplier<String> message) {
+        if (logger.isDebugEnabled()) {
+            log(Level.DEBUG, message.get());
+        }
+    }
+
+    public void warn(String message) {
+        if (logger.isWarnEnabled()) {
+            log(Level.WARN, message);
+        }
+    }
+
+    public void warn(String format, Object arg) {
+        if (logger.isWarnEnabled()) {
+            log(Level.WARN, MessageFormatter.format(format, arg).getMessage());
+        }
+    }
+
+    public void warn(String format, Object arg1, Object arg2) {
+        if (logger.isWarnEnabled()) {
+            log(Level.WARN, MessageFormatter.format(format, arg1, arg2).getMessage());
+        }
+    }
+
+    public void warn(String format, Object... args) {
+        if (logger.isWarnEnabled()) {
+            log(Level.WARN, MessageFormatter.arrayFormat(format, args).getMessage());
         }
-        logger.warn(string);
     }
 
-    public void error(String string) {
+    public void warn(Supplier<String> message) {
+        if (logger.isWarnEnabled()) {
+            log(Level.WARN, message.get());
+        }
+    }
+
+    public void error(String message) {
+        if (logger.isErrorEnabled()) {
+            log(Level.ERROR, message);
+        }
+    }
+
+    public void error(String format, Object arg) {
+        if (logger.isErrorEnabled()) {
+            log(Level.ERROR, MessageFormatter.format(format, arg).getMessage());
+        }
+    }
+
+    public void error(String format, Object arg1, Object arg2) {
+        if (logger.isErrorEnabled()) {
+            log(Level.ERROR, MessageFormatter.format(format, arg1, arg2).getMessage());
+        }
+    }
+
+    public void error(String format, Object... args) {
+        if (logger.isErrorEnabled()) {
+            log(Level.ERROR, MessageFormatter.arrayFormat(format, args).getMessage());
+        }
+    }
+
+    public void error(Supplier<String> message) {
+        if (logger.isErrorEnabled()) {
+            log(Level.ERROR, message.get());
+        }
+    }
+
+    public boolean isDebugEnabled() {
+        return logger.isDebugEnabled();
+    }
+
+    public boolean isInfoEnabled() {
+        return logger.isInfoEnabled();
+    }
+
+    /**
+     * Commits the report logs buffered for the current thread's test to its ExtentTest in one batch.
+     * This is called by the {@link TestListener} when a test finishes.
+     */
+    public static void commit() {
+        bufferThreadLocal.get().commit();
+    }
+
+    /**
+     * Commits the report logs buffered by every thread, e.g. before the report is written.
+     */
+    public static void commitAll() {
+        buffers.forEach(TestLogBuffer::commit);
+    }
+
+    /**
+     * Waits until every log queued by the async writer has been written.
+     * Does nothing when logging is synchronous.
+     */
+    public static void flush() {
+        if (dispatcher != null) {
+            dispatcher.flush();
+        }
+    }
+
+    /**
+     * Gets the async log writer, to read its counters.
+     *
+     * @return the async log writer, or null when logging is synchronous
+     */
+    public static AsyncLogDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    private static void shutdown() {
+        flush();
+        if (LoggerFactory.getILoggerFactory() instanceof LoggerContext loggerContext) {
+            loggerContext.stop();
+        }
+    }
+
+    private void log(Level level, String message) {
+        log(level, message, message);
+    }
+
+    private void log(Level level, String message, String reportMessage) {
         ExtentTest currentTest = ExtentTests.getTest();
         if (currentTest != null) {
-            ExtentTests.getTest().log(Status.INFO, string);
+            bufferThreadLocal.get().add(currentTest, reportMessage);
+        }
+        if (dispatcher != null && logger instanceof ch.qos.logback.classic.Logger logbackLogger) {
+            dispatcher.dispatch(logbackLogger, level, message);
+            return;
+        }
+        switch (level.toInt()) {
+            case Level.DEBUG_INT -> logger.debug(message);
+            case Level.WARN_INT -> logger.warn(message);
+            case Level.ERROR_INT -> logger.error(message);
+            default -> logger.info(message);
+        }
+    }
+
+    private static TestLogBuffer newBuffer() {
+        TestLogBuffer buffer = new TestLogBuffer();
+        buffers.add(buffer);
+        return buffer;
+    }
+
+    // The report logs of one thread's current test
+    private static class TestLogBuffer {
+
+        private ExtentTest test;
+        private List<String> messages = new ArrayList<>();
+
+        synchronized void add(ExtentTest currentTest, String message) {
+            if (test != currentTest) {
+                // The thread has moved on to another test, so the previous test's logs are complete
+                commit();
+                test = currentTest;
+            }
+            messages.add(message);
+        }
+
+        synchronized void commit() {
+            if (test == null || messages.isEmpty()) {
+                return;
+            }
+            ExtentTest target = test;
+            List<String> batch = messages;
+            messages = new ArrayList<>();
+            if (dispatcher != null) {
+                dispatcher.dispatch(() -> batch.forEach(message -> ExtentTests.log(target, Status.INFO, message)));
+            } else {
+                batch.forEach(message -> ExtentTests.log(target, Status.INFO, message));
+            }
         }
-        logger.error(string);
     }
 }
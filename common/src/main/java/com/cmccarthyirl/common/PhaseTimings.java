@@ -0,0 +1,282 @@
+package com.cmccarthyirl.common;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * Records how long each phase of a test takes, e.g. leasing a browser, opening its context, navigating, waiting for
+ * the page or making an API request, per test and for the whole suite. A test's phases are summarised in its report
+ * when it finishes, and the suite's are exported by {@link #export()} to {@value #JSON_PATH} and, in the Prometheus
+ * text format, to {@value #PROMETHEUS_PATH}.
+ * <p>
+ * A phase recorded on a thread that is not running a test, e.g. a browser launched while the pool warms up or a
+ * session prepared in the background, only counts towards the suite. When the run is traced, every phase is also a
+ * span of the {@link TraceWriter} timeline.
+ */
+public class PhaseTimings {
+
+    public static final String JSON_PATH = "target/phase-timings.json";
+    public static final String PROMETHEUS_PATH = "target/phase-timings.prom";
+
+    // The time the test method ran outside of every recorded phase, i.e. the test's own code and assertions
+    public static final String TEST_BODY = "test.body";
+    public static final String TEST_OTHER = "test.other";
+
+    private static final LogManager log = new LogManager(PhaseTimings.class);
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private static final Map<String, LatencyHistogram> suite = new ConcurrentHashMap<>();
+    private static final ThreadLocal<TestTimings> testThreadLocal = new ThreadLocal<>();
+    private static final Queue<TestSummary> tests = new ConcurrentLinkedQueue<>();
+
+    private PhaseTimings() {
+    }
+
+    /**
+     * Starts recording the phases of a test on the current thread, dropping what a previous test left behind.
+     */
+    public static void startTest() {
+        testThreadLocal.set(new TestTimings());
+    }
+
+    /**
+     * Records a phase of the current test and of the suite.
+     *
+     * @param phase the name of the phase
+     * @param nanos how long it took
+     */
+    public static void record(String phase, long nanos) {
+        suite.computeIfAbsent(phase, p -> new LatencyHistogram()).record(nanos);
+        TestTimings test = testThreadLocal.get();
+        if (test != null) {
+            test.record(phase, nanos);
+        }
+        TraceWriter trace = TraceWriter.get();
+        if (trace != null) {
+            // The category is the first part of the phase name, e.g. page for page.wait
+            int dot = phase.indexOf('.');
+            trace.complete(phase, dot < 0 ? phase : phase.substring(0, dot), nanos, null);
+        }
+    }
+
+    /**
+     * Runs a call and records how long it took as a phase, whether or not it threw.
+     *
+     * @param phase the name of the phase
+     * @param call  the call
+     * @param <T>   the type of the result
+     * @return the result of the call
+     */
+    public static <T> T time(String phase, Supplier<T> call) {
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            record(phase, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Runs a call and records how long it took as a phase, see {@link #time(String, Supplier)}.
+     *
+     * @param phase the name of the phase
+     * @param call  the call
+     */
+    public static void time(String phase, Runnable call) {
+        time(phase, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs the test method and records it as {@value #TEST_BODY}, and the part of it that is not covered by the
+     * phases it recorded as {@value #TEST_OTHER}.
+     *
+     * @param body the test method
+     */
+    public static void timeTestBody(Runnable body) {
+        TestTimings test = testThreadLocal.get();
+        long phasesBefore = test == null ? 0 : test.recordedNanos;
+        long start = System.nanoTime();
+        try {
+            body.run();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            long phases = test == null ? 0 : test.recordedNanos - phasesBefore;
+            record(TEST_BODY, elapsed);
+            record(TEST_OTHER, Math.max(0, elapsed - phases));
+        }
+    }
+
+    /**
+     * Stops recording the current test, logs its phases to its report and keeps them for the export.
+     *
+     * @param testId the id of the test
+     */
+    public static void finishTest(String testId) {
+        TestTimings test = testThreadLocal.get();
+        testThreadLocal.remove();
+        if (test == null || test.phases.isEmpty()) {
+            return;
+        }
+        Map<String, PhaseSummary> phases = new LinkedHashMap<>();
+        test.phases.forEach((phase, samples) -> phases.put(phase, samples.summarise()));
+        tests.add(new TestSummary(testId, phases));
+        // One line in the log files, one line per phase in the report
+        log.info(() -> describe(phases, "Phase timings: ", " | "), () -> describe(phases, "Phase timings:<br>", "<br>"));
+    }
+
+    private static String describe(Map<String, PhaseSummary> phases, String prefix, String separator) {
+        StringJoiner message = new StringJoiner(separator, prefix, "");
+        phases.forEach((phase, summary) -> message.add(phase + ": " + summary.describe()));
+        return message.toString();
+    }
+
+    /**
+     * Summarises every phase recorded in the suite so far.
+     *
+     * @return the summary of each phase, by phase name
+     */
+    public static Map<String, PhaseSummary> getSuiteSummary() {
+        Map<String, PhaseSummary> summary = new TreeMap<>();
+        suite.forEach((phase, histogram) -> summary.put(phase, PhaseSummary.of(histogram)));
+        return summary;
+    }
+
+    /**
+     * Writes the suite and test summaries as JSON, and the suite summary in the Prometheus text format.
+     * Nothing is written when no phase was recorded.
+     */
+    public static void export() {
+        Map<String, PhaseSummary> summary = getSuiteSummary();
+        if (summary.isEmpty()) {
+            return;
+        }
+        try {
+            Path json = Paths.get(JSON_PATH);
+            Files.createDirectories(json.getParent());
+            Gson gson = new GsonBuilder().setPrettyPrinting().create();
+            try (Writer writer = Files.newBufferedWriter(json, StandardCharsets.UTF_8)) {
+                Map<String, Object> document = new LinkedHashMap<>();
+                document.put("suite", summary);
+                document.put("tests", new ArrayList<>(tests));
+                gson.toJson(document, writer);
+            }
+            Files.writeString(Paths.get(PROMETHEUS_PATH), toPrometheus(), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            log.warn("Failed to export the phase timings: {}", ex.getMessage());
+        }
+    }
+
+    // A summary per phase, with the p50, p90 and p99 as quantiles, and the maximum as a gauge of its own
+    private static String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        text.append("# HELP test_phase_duration_seconds Duration of the phases of the tests.\n");
+        text.append("# TYPE test_phase_duration_seconds summary\n");
+        new TreeMap<>(suite).forEach((phase, histogram) -> {
+            String label = "phase=\"" + phase + "\"";
+            for (double quantile : QUANTILES) {
+                text.append("test_phase_duration_seconds{").append(label).append(",quantile=\"").append(quantile)
+                        .append("\"} ").append(seconds(histogram.getPercentileMicros(quantile))).append('\n');
+            }
+            text.append("test_phase_duration_seconds_sum{").append(label).append("} ")
+                    .append(seconds(histogram.getTotalMicros())).append('\n');
+            text.append("test_phase_duration_seconds_count{").append(label).append("} ")
+                    .append(histogram.getCount()).append('\n');
+        });
+        text.append("# HELP test_phase_duration_max_seconds Longest duration of the phases of the tests.\n");
+        text.append("# TYPE test_phase_duration_max_seconds gauge\n");
+        new TreeMap<>(suite).forEach((phase, histogram) -> text.append("test_phase_duration_max_seconds{phase=\"").append(phase)
+                .append("\"} ").append(seconds(histogram.getMaxMicros())).append('\n'));
+        return text.toString();
+    }
+
+    private static double seconds(long micros) {
+        return micros / 1_000_000.0;
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    /**
+     * The count, percentiles, maximum and total of a phase, in milliseconds.
+     */
+    public record PhaseSummary(long count, double p50Ms, double p90Ms, double p99Ms, double maxMs, double totalMs) {
+
+        static PhaseSummary of(LatencyHistogram histogram) {
+            return new PhaseSummary(histogram.getCount(), millis(histogram.getPercentileMicros(0.5)),
+                    millis(histogram.getPercentileMicros(0.9)), millis(histogram.getPercentileMicros(0.99)),
+                    millis(histogram.getMaxMicros()), millis(histogram.getTotalMicros()));
+        }
+
+        /**
+         * Summarises the phase in a single line.
+         *
+         * @return the phase counters
+         */
+        public String describe() {
+            return "count=" + count + ", p50=" + p50Ms + " ms, p90=" + p90Ms + " ms, p99=" + p99Ms
+                    + " ms, max=" + maxMs + " ms, total=" + totalMs + " ms";
+        }
+    }
+
+    private record TestSummary(String testId, Map<String, PhaseSummary> phases) {
+    }
+
+    // The phases of the current test, few enough to keep every sample and read exact percentiles
+    private static class TestTimings {
+
+        private final Map<String, Samples> phases = new LinkedHashMap<>();
+        private long recordedNanos;
+
+        void record(String phase, long nanos) {
+            phases.computeIfAbsent(phase, p -> new Samples()).add(nanos);
+            if (!TEST_BODY.equals(phase) && !TEST_OTHER.equals(phase)) {
+                recordedNanos += nanos;
+            }
+        }
+    }
+
+    private static class Samples {
+
+        private long[] micros = new long[8];
+        private int size;
+
+        void add(long nanos) {
+            if (size == micros.length) {
+                micros = Arrays.copyOf(micros, size * 2);
+            }
+            micros[size++] = Math.max(0, nanos / 1000);
+        }
+
+        PhaseSummary summarise() {
+            long[] sorted = Arrays.copyOf(micros, size);
+            Arrays.sort(sorted);
+            long total = 0;
+            for (long value : sorted) {
+                total += value;
+            }
+            return new PhaseSummary(size, millis(percentile(sorted, 0.5)), millis(percentile(sorted, 0.9)),
+                    millis(percentile(sorted, 0.99)), millis(sorted[size - 1]), millis(total));
+        }
+
+        // Nearest rank
+        private static long percentile(long[] sorted, double quantile) {
+            int rank = (int) Math.ceil(quantile * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+    }
+}
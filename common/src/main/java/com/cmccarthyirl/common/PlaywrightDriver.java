@@ -0,0 +1,218 @@
+package com.cmccarthyirl.common;
+
+import com.microsoft.playwright.Playwright;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A Playwright instance owned by a dedicated dispatcher thread and shared by every test thread.
+ * Each Playwright instance runs its own Node driver process, so sharing a few of them instead of creating one
+ * per browser or test thread saves that process' startup time and memory. Playwright is not thread-safe, so the
+ * test threads submit their calls on the instance, and on the browsers, pages and request contexts it created,
+ * to the owning thread with {@link #call(Supplier)}.
+ * <p>
+ * The number of shared instances is set with `playwrightDrivers` in the properties file (or `-DplaywrightDrivers`).
+ * 0, the default, keeps one Playwright instance per browser or test thread and no dispatcher threads.
+ */
+public class PlaywrightDriver {
+
+    private static final LogManager log = new LogManager(PlaywrightDriver.class);
+
+    // The shared instances of the JVM, created on first use and handed out in turn
+    private static final List<PlaywrightDriver> drivers = new ArrayList<>();
+    private static int nextDriver;
+
+    private final ExecutorService executor;
+    private final Playwright playwright;
+    private volatile Thread owner;
+
+    // Counters
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder totalQueueNanos = new LongAdder();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+
+    /**
+     * Starts the dispatcher thread and creates its Playwright instance on it.
+     *
+     * @param name the name of the dispatcher thread
+     */
+    public PlaywrightDriver(String name) {
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            owner = thread;
+            return thread;
+        });
+        long start = System.nanoTime();
+        this.playwright = call(Playwright::create);
+        log.info("Started the Playwright driver {} in {} ms", name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Gets a shared driver when `playwrightDrivers` is configured, creating the drivers on first use.
+     * Consecutive calls return the drivers in turn, so the browsers or test threads are spread evenly.
+     *
+     * @param properties the configuration properties
+     * @return a shared driver, or null when every browser or test thread owns its own Playwright instance
+     */
+    public static PlaywrightDriver next(Properties properties) {
+        return next(getCount(properties));
+    }
+
+    /**
+     * Gets one of the first `count` shared drivers, creating them on first use.
+     * Consecutive calls return the drivers in turn.
+     *
+     * @param count the number of shared drivers to spread the callers over
+     * @return a shared driver, or null when count is 0
+     */
+    public static synchronized PlaywrightDriver next(int count) {
+        if (count <= 0) {
+            return null;
+        }
+        if (drivers.size() < count) {
+            drivers.add(new PlaywrightDriver("playwright-driver-" + drivers.size()));
+            return drivers.get(drivers.size() - 1);
+        }
+        return drivers.get(nextDriver++ % Math.min(count, drivers.size()));
+    }
+
+    /**
+     * Gets the shared driver that owns a Playwright instance.
+     *
+     * @param playwright the Playwright instance
+     * @return the driver, or null when the instance is not shared
+     */
+    public static synchronized PlaywrightDriver of(Playwright playwright) {
+        for (PlaywrightDriver driver : drivers) {
+            if (driver.playwright == playwright) {
+                return driver;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the number of shared drivers, see the class comment.
+     *
+     * @param properties the configuration properties
+     * @return the number of shared drivers, 0 when they are not used
+     */
+    public static int getCount(Properties properties) {
+        return Integer.parseInt(System.getProperty("playwrightDrivers",
+                properties.getProperty("playwrightDrivers", "0")));
+    }
+
+    /**
+     * Closes every shared driver. The browsers and request contexts they own must be closed first.
+     */
+    public static synchronized void closeAll() {
+        drivers.forEach(PlaywrightDriver::close);
+        drivers.clear();
+        nextDriver = 0;
+    }
+
+    /**
+     * Summarises the counters of every shared driver in a single line.
+     *
+     * @return the driver counters, or null when no driver was created
+     */
+    public static synchronized String describeAll() {
+        if (drivers.isEmpty()) {
+            return null;
+        }
+        List<String> descriptions = new ArrayList<>();
+        drivers.forEach(driver -> descriptions.add(driver.describeMetrics()));
+        return "drivers=" + drivers.size() + " " + descriptions;
+    }
+
+    /**
+     * Runs a call on the dispatcher thread and waits for its result.
+     * A call made from the dispatcher thread itself, e.g. by a route handler, runs straight away.
+     *
+     * @param call the call, which may use any object created by this driver's Playwright instance
+     * @param <T>  the type of the result
+     * @return the result of the call
+     */
+    public <T> T call(Supplier<T> call) {
+        if (Thread.currentThread() == owner) {
+            return call.get();
+        }
+        long submitted = System.nanoTime();
+        Future<T> future = executor.submit(() -> {
+            long queued = System.nanoTime() - submitted;
+            calls.increment();
+            totalQueueNanos.add(queued);
+            maxQueueNanos.accumulateAndGet(queued, Math::max);
+            return call.get();
+        });
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the Playwright driver", ex);
+        } catch (ExecutionException ex) {
+            // Rethrow the driver's exception as is, so callers can still catch PlaywrightException
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (ex.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    /**
+     * Runs a call on the dispatcher thread and waits for it to finish, see {@link #call(Supplier)}.
+     *
+     * @param call the call
+     */
+    public void run(Runnable call) {
+        call(() -> {
+            call.run();
+            return null;
+        });
+    }
+
+    /**
+     * Gets the Playwright instance. Its methods must only be called through {@link #call(Supplier)}.
+     *
+     * @return the Playwright instance
+     */
+    public Playwright getPlaywright() {
+        return playwright;
+    }
+
+    /**
+     * Summarises how many calls the driver ran and how long they queued, in a single line.
+     *
+     * @return the driver counters
+     */
+    public String describeMetrics() {
+        long count = calls.sum();
+        long averageQueue = count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalQueueNanos.sum() / count);
+        return "calls=" + count + ", avgQueueUs=" + averageQueue
+                + ", maxQueueUs=" + TimeUnit.NANOSECONDS.toMicros(maxQueueNanos.get());
+    }
+
+    private void close() {
+        try {
+            run(playwright::close);
+        } catch (RuntimeException ex) {
+            log.warn("Failed to close a Playwright driver: {}", ex.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
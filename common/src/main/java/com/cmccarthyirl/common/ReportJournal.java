@@ -0,0 +1,145 @@
+package com.cmccarthyirl.common;
+
+import com.aventstack.extentreports.ExtentTest;
+import com.aventstack.extentreports.Status;
+import com.aventstack.extentreports.model.service.util.ExceptionUtil;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only JSON-lines journal of everything that happens to the report during a run.
+ * Each line is one event (test created, attribute assigned, log, test finished, system info),
+ * so writing is proportional to the new events rather than to the size of the report.
+ * The Spark HTML is rendered once from the journal by {@link JournalRenderer}.
+ */
+public class ReportJournal implements Closeable {
+
+    static final String TEST = "test";
+    static final String ATTRIBUTE = "attribute";
+    static final String LOG = "log";
+    static final String FINISH = "finish";
+    static final String SYSTEM_INFO = "systemInfo";
+
+    private final Gson gson = new Gson();
+    private final Path path;
+    private final Writer writer;
+    private boolean closed;
+
+    /**
+     * Creates a new journal, replacing any journal left by a previous run.
+     *
+     * @param path the journal file to write
+     * @throws IOException if the journal cannot be created
+     */
+    public ReportJournal(Path path) throws IOException {
+        this.path = path;
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        this.writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE),
+                StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    public void testCreated(ExtentTest test, ExtentTest parent, String name, String description) {
+        JsonObject event = event(TEST, test);
+        if (parent != null) {
+            event.addProperty("parent", parent.getModel().getId());
+        }
+        event.addProperty("name", name);
+        event.addProperty("description", description);
+        append(event);
+    }
+
+    public void attributeAssigned(ExtentTest test, String kind, String value) {
+        JsonObject event = event(ATTRIBUTE, test);
+        event.addProperty("kind", kind);
+        event.addProperty("value", value);
+        append(event);
+    }
+
+    public void logged(ExtentTest test, Status status, String details) {
+        JsonObject event = event(LOG, test);
+        event.addProperty("status", status.name());
+        event.addProperty("details", details);
+        append(event);
+    }
+
+    public void logged(ExtentTest test, Status status, Throwable throwable) {
+        JsonObject event = event(LOG, test);
+        event.addProperty("status", status.name());
+        event.addProperty("exception", ExceptionUtil.getExceptionHeadline(throwable));
+        event.addProperty("stackTrace", ExceptionUtil.getStackTrace(throwable));
+        append(event);
+    }
+
+    public void testFinished(ExtentTest test, Status status) {
+        JsonObject event = event(FINISH, test);
+        event.addProperty("status", status.name());
+        append(event);
+    }
+
+    public void systemInfo(String key, String value) {
+        JsonObject event = new JsonObject();
+        event.addProperty("type", SYSTEM_INFO);
+        event.addProperty("time", System.currentTimeMillis());
+        event.addProperty("key", key);
+        event.addProperty("value", value);
+        append(event);
+    }
+
+    /**
+     * Pushes the buffered events to disk, so a killed run still leaves a journal that can be rendered.
+     */
+    public synchronized void flush() {
+        if (closed) {
+            return;
+        }
+        try {
+            writer.flush();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writer.close();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    private JsonObject event(String type, ExtentTest test) {
+        JsonObject event = new JsonObject();
+        event.addProperty("type", type);
+        event.addProperty("time", System.currentTimeMillis());
+        event.addProperty("id", test.getModel().getId());
+        return event;
+    }
+
+    private synchronized void append(JsonObject event) {
+        if (closed) {
+            return;
+        }
+        try {
+            gson.toJson(event, writer);
+            writer.write('\n');
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
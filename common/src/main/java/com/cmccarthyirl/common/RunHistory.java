@@ -0,0 +1,248 @@
+package com.cmccarthyirl.common;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import org.testng.ITestNGMethod;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * The recent runs of each test method, kept in a local JSON file: a moving average of its duration, so
+ * the suite can be split into shards that take about as long as each other, and whether each of the last
+ * {@value #MAX_OUTCOMES} runs failed, a bit per run, so the tests that failed lately can run first. A method's data
+ * provider rows count as one test, which failed if any row failed, as the rows of a method always run together.
+ * <p>
+ * The file is `test-history.json` in the module directory, or `-Dhistory.file`. CI nodes share it by caching it
+ * between builds, or it can be committed. A sharded run leaves the file as it is, so every shard splits the suite the
+ * same way, and writes the durations of its own tests next to it instead, e.g. to
+ * `test-history-shard-2-of-4.json`. The shards' files are folded back into the history once they have all run:
+ * <pre>
+ * java -cp common/target/classes:&lt;classpath&gt; com.cmccarthyirl.common.RunHistory test-history.json fragments/
+ * </pre>
+ */
+public class RunHistory {
+
+    private static final LogManager log = new LogManager(RunHistory.class);
+    private static final Type ENTRIES = new TypeToken<Map<String, Entry>>() {
+    }.getType();
+    // The plain mean of the first runs, then an exponential moving average that weighs each new run by 1/MAX_RUNS,
+    // so it follows a test that got slower or faster
+    private static final int MAX_RUNS = 5;
+    private static final int MAX_OUTCOMES = 16;
+    private static final RunHistory instance =
+            new RunHistory(Paths.get(System.getProperty("history.file", "test-history.json")));
+
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private final Path path;
+    private final Map<String, Entry> entries;
+    // The durations and outcomes of this run, per method
+    private final Map<String, RunTotal> run = new ConcurrentHashMap<>();
+
+    /**
+     * Loads a history file, if it exists.
+     *
+     * @param path the history file
+     */
+    public RunHistory(Path path) {
+        this.path = path;
+        this.entries = read(path);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: RunHistory <test-history.json> <shard file|directory>...");
+            System.exit(1);
+        }
+        RunHistory history = new RunHistory(Paths.get(args[0]));
+        Map<String, Entry> merged = new TreeMap<>(history.entries);
+        for (int i = 1; i < args.length; i++) {
+            for (Path fragment : fragments(Paths.get(args[i]))) {
+                // The shards ran different tests, so each entry comes from one shard only
+                merged.putAll(history.read(fragment));
+            }
+        }
+        history.write(history.path, merged);
+        System.out.println("Merged the test history into " + history.path.toAbsolutePath());
+    }
+
+    public static RunHistory get() {
+        return instance;
+    }
+
+    /**
+     * Gets the key of a test method in the history, the same as the report's: TestNG test, class and method name.
+     *
+     * @param method the test method
+     * @return the key of the method
+     */
+    public static String key(ITestNGMethod method) {
+        return method.getTestClass().getXmlTest().getName() + "#" + method.getTestClass().getName()
+                + "#" + method.getMethodName();
+    }
+
+    /**
+     * Adds a test, or one data provider row of it, to this run.
+     *
+     * @param key    the key of the test method
+     * @param millis how long it took
+     * @param failed whether it failed
+     */
+    public void record(String key, long millis, boolean failed) {
+        // Under the map's lock for the key, so save() never takes a total that is still being added to
+        run.compute(key, (k, total) -> {
+            RunTotal updated = total == null ? new RunTotal() : total;
+            updated.millis.add(Math.max(0, millis));
+            if (failed) {
+                updated.failed = true;
+            }
+            return updated;
+        });
+    }
+
+    /**
+     * Gets the moving average of a test method's duration.
+     *
+     * @param key the key of the test method
+     * @return the average duration in milliseconds, or null when the method has no history
+     */
+    public Long estimate(String key) {
+        Entry entry = entries.get(key);
+        return entry == null ? null : entry.averageMs;
+    }
+
+    /**
+     * Gets how many runs ago a test method last failed.
+     *
+     * @param key the key of the test method
+     * @return 0 when it failed in the last run, 1 in the run before, and so on, or null when it has not failed in
+     * its last {@value #MAX_OUTCOMES} runs
+     */
+    public Integer lastFailure(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.failures == 0) {
+            return null;
+        }
+        return Integer.numberOfTrailingZeros(entry.failures);
+    }
+
+    /**
+     * Gets the number of runs in a test method's history.
+     *
+     * @param key the key of the test method
+     * @return the number of runs, 0 for a new test
+     */
+    public int getOutcomes(String key) {
+        Entry entry = entries.get(key);
+        return entry == null ? 0 : Math.max(entry.outcomes, entry.runs);
+    }
+
+    /**
+     * Adds the durations and outcomes of this run to the history file, or to the shard's own file in a sharded run.
+     * The file is read again first, as other JVMs, e.g. the other modules or forks, may have saved theirs in the meantime.
+     */
+    public synchronized void save() {
+        if (run.isEmpty()) {
+            return;
+        }
+        TestShard shard = TestShard.fromSystemProperties();
+        Path target = shard == null ? path : shardPath(shard);
+        Map<String, Entry> merged = new TreeMap<>(read(target));
+        for (String key : run.keySet()) {
+            // Taken out of the run one key at a time, so a test recorded meanwhile is kept for the next save
+            RunTotal total = run.remove(key);
+            if (total == null) {
+                continue;
+            }
+            Entry previous = entries.get(key);
+            long millis = total.millis.sum();
+            int failed = total.failed ? 1 : 0;
+            if (previous == null) {
+                merged.put(key, new Entry(millis, 1, 1, failed));
+            } else {
+                int runs = Math.min(previous.runs + 1, MAX_RUNS);
+                int outcomes = Math.min(previous.outcomes + 1, MAX_OUTCOMES);
+                // The latest outcome is bit 0, the oldest falls off after MAX_OUTCOMES runs
+                int failures = ((previous.failures << 1) | failed) & ((1 << MAX_OUTCOMES) - 1);
+                merged.put(key, new Entry(previous.averageMs + (millis - previous.averageMs) / runs, runs,
+                        outcomes, failures));
+            }
+        }
+        write(target, merged);
+    }
+
+    private Path shardPath(TestShard shard) {
+        String name = path.getFileName().toString().replaceFirst("\\.json$", "");
+        return path.resolveSibling(name + "-" + shard.getName() + ".json");
+    }
+
+    // Replaces the file in one move, so a concurrent reader never sees half of it
+    private void write(Path file, Map<String, Entry> content) {
+        try {
+            Path absolute = file.toAbsolutePath();
+            Files.createDirectories(absolute.getParent());
+            Path temporary = Files.createTempFile(absolute.getParent(), "test-history", ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                gson.toJson(content, ENTRIES, writer);
+            }
+            Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            log.warn("Failed to save the test history to {}: {}", file, ex.getMessage());
+        }
+    }
+
+    // A shard file, or the shard files in a directory and its subdirectories
+    private static List<Path> fragments(Path path) {
+        if (!Files.isDirectory(path)) {
+            return List.of(path);
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            return files.filter(file -> file.getFileName().toString().matches(".*-shard-\\d+-of-\\d+\\.json"))
+                    .sorted().toList();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private Map<String, Entry> read(Path file) {
+        Map<String, Entry> loaded = new ConcurrentHashMap<>();
+        if (!Files.exists(file)) {
+            return loaded;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Map<String, Entry> read = gson.fromJson(reader, ENTRIES);
+            if (read != null) {
+                loaded.putAll(read);
+            }
+        } catch (IOException | JsonParseException ex) {
+            log.warn("Ignored the unreadable test history in {}: {}", file, ex.getMessage());
+        }
+        return loaded;
+    }
+
+    // failures has a bit per run, the latest first, set when the run failed
+    private record Entry(long averageMs, int runs, int outcomes, int failures) {
+    }
+
+    private static class RunTotal {
+
+        private final LongAdder millis = new LongAdder();
+        private volatile boolean failed;
+    }
+}
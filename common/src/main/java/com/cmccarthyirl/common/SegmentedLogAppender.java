@@ -0,0 +1,223 @@
+package com.cmccarthyirl.common;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Writes the logs of every test into a few memory-mapped segment files instead of one file per test.
+ * Each log line is appended to the current segment, and an index records which ranges of which segment
+ * belong to which test id (the `testId` MDC, falling back to `logFileName`). Consecutive lines of the
+ * same test are recorded as one range. The index is buffered, and pushed to disk by {@link #flush()} (once per batch
+ * of the async log writer) and at least every `flushIntervalMillis` while logs are written, together with the
+ * range still open, so the logs of a run that crashes can still be read. A single test's log is read back with
+ * {@link SegmentedLogReader}.
+ *
+ * <pre>
+ * &lt;appender name="FILE-SEGMENTS" class="com.cmccarthyirl.common.SegmentedLogAppender"&gt;
+ *     &lt;directory&gt;logs/segments&lt;/directory&gt;
+ *     &lt;segmentSize&gt;16777216&lt;/segmentSize&gt;
+ *     &lt;encoder&gt;...&lt;/encoder&gt;
+ * &lt;/appender&gt;
+ * </pre>
+ */
+public class SegmentedLogAppender extends AppenderBase<ILoggingEvent> implements Flushable {
+
+    static final String INDEX_FILE = "index.tsv";
+    static final String SEGMENT_PREFIX = "segment-";
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    private Encoder<ILoggingEvent> encoder;
+    private String directory = "logs/segments";
+    private long segmentSize = 16 * 1024 * 1024;
+    private String key = "testId";
+    private String fallbackKey = "logFileName";
+    private String defaultValue = "Boot";
+    private long flushIntervalMillis = 1000;
+
+    private Path root;
+    private Writer index;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int segmentNumber = -1;
+    private long lastIndexFlush = System.currentTimeMillis();
+
+    // The range being written for the current test, recorded in the index once another test writes
+    private String pendingId;
+    private int pendingSegment;
+    private int pendingOffset;
+    private int pendingLength;
+
+    @Override
+    public void start() {
+        if (encoder == null) {
+            addError("No encoder set for the appender named [" + name + "].");
+            return;
+        }
+        try {
+            root = Paths.get(directory);
+            Files.createDirectories(root);
+            // Like the per-test files it replaces, each run starts with a fresh log store
+            try (DirectoryStream<Path> segments = Files.newDirectoryStream(root, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+                for (Path path : segments) {
+                    Files.delete(path);
+                }
+            }
+            index = Files.newBufferedWriter(root.resolve(INDEX_FILE), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        } catch (IOException ex) {
+            addError("Failed to open the log store in " + directory, ex);
+            return;
+        }
+        super.start();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        byte[] bytes = encoder.encode(event);
+        try {
+            if (segment == null || segment.remaining() < bytes.length) {
+                nextSegment(bytes.length);
+            }
+            int offset = segment.position();
+            segment.put(bytes);
+            record(testId(event), offset, bytes.length);
+            if (System.currentTimeMillis() - lastIndexFlush >= flushIntervalMillis) {
+                flush();
+            }
+        } catch (IOException ex) {
+            addError("Failed to write to the log store in " + directory, ex);
+        }
+    }
+
+    /**
+     * Records the range of the current test in the index and pushes the index to disk.
+     * The log lines themselves are already in the page cache once they are written to a segment.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (index == null) {
+            return;
+        }
+        writePending();
+        index.flush();
+        lastIndexFlush = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        try {
+            flush();
+            index.close();
+            closeSegment();
+        } catch (IOException ex) {
+            addError("Failed to close the log store in " + directory, ex);
+        }
+    }
+
+    public void setEncoder(Encoder<ILoggingEvent> encoder) {
+        this.encoder = encoder;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public void setFallbackKey(String fallbackKey) {
+        this.fallbackKey = fallbackKey;
+    }
+
+    public void setDefaultValue(String defaultValue) {
+        this.defaultValue = defaultValue;
+    }
+
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    // Data provider rows share a log file name, so the test id (which includes the parameters) is preferred
+    private String testId(ILoggingEvent event) {
+        Map<String, String> mdc = event.getMDCPropertyMap();
+        String id = mdc.get(key);
+        if (id == null) {
+            id = mdc.get(fallbackKey);
+        }
+        return id == null ? defaultValue : id;
+    }
+
+    private void record(String id, int offset, int length) throws IOException {
+        if (id.equals(pendingId) && pendingSegment == segmentNumber && pendingOffset + pendingLength == offset) {
+            pendingLength += length;
+            return;
+        }
+        writePending();
+        pendingId = id;
+        pendingSegment = segmentNumber;
+        pendingOffset = offset;
+        pendingLength = length;
+    }
+
+    private void writePending() throws IOException {
+        if (pendingId == null) {
+            return;
+        }
+        index.write(pendingSegment + "\t" + pendingOffset + "\t" + pendingLength + "\t" + pendingId + "\n");
+        pendingId = null;
+    }
+
+    // A line longer than the segment size gets a segment of its own
+    private void nextSegment(int minimumSize) throws IOException {
+        closeSegment();
+        segmentNumber++;
+        long size = Math.max(segmentSize, minimumSize);
+        channel = FileChannel.open(root.resolve(segmentName(segmentNumber)),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void closeSegment() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        int used = segment.position();
+        segment.force();
+        try {
+            // Drop the unused tail, which some platforms refuse while the segment is still mapped
+            channel.truncate(used);
+        } catch (IOException ex) {
+            addWarn("Left " + segmentName(segmentNumber) + " at its full size: " + ex.getMessage());
+        }
+        channel.close();
+        channel = null;
+        segment = null;
+    }
+
+    static String segmentName(int number) {
+        return String.format("%s%05d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX);
+    }
+}
@@ -0,0 +1,152 @@
+package com.cmccarthyirl.common;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads back the logs written by {@link SegmentedLogAppender}.
+ * Without a test id it lists the tests in the store, otherwise it writes that test's log
+ * (or the logs of every test id starting with it) to the console or a file:
+ * <pre>
+ * java -cp common/target/classes:&lt;classpath&gt; com.cmccarthyirl.common.SegmentedLogReader ui/logs/segments "UI-searchForExactTitle" [-o UI-searchForExactTitle.log]
+ * </pre>
+ */
+public class SegmentedLogReader {
+
+    private final Path directory;
+    // The ranges of each test id, in the order they were written
+    private final Map<String, List<Range>> index = new LinkedHashMap<>();
+
+    /**
+     * Loads the index of a log store.
+     *
+     * @param directory the directory of the log store
+     * @throws IOException if the index cannot be read
+     */
+    public SegmentedLogReader(Path directory) throws IOException {
+        this.directory = directory;
+        try (BufferedReader reader = Files.newBufferedReader(directory.resolve(SegmentedLogAppender.INDEX_FILE),
+                StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length < 4) {
+                    // The last line of a killed run may be incomplete
+                    continue;
+                }
+                index.computeIfAbsent(fields[3], id -> new ArrayList<>()).add(new Range(
+                        Integer.parseInt(fields[0]), Long.parseLong(fields[1]), Integer.parseInt(fields[2])));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: SegmentedLogReader <directory> [<testId>] [-o <file>]");
+            System.exit(1);
+        }
+        SegmentedLogReader reader = new SegmentedLogReader(Paths.get(args[0]));
+        if (args.length == 1) {
+            reader.getTestIds().forEach((id, bytes) -> System.out.println(id + "\t" + bytes + " bytes"));
+            return;
+        }
+        if (args.length > 3 && "-o".equals(args[2])) {
+            try (OutputStream out = Files.newOutputStream(Paths.get(args[3]))) {
+                reader.extract(args[1], out);
+            }
+        } else {
+            reader.extract(args[1], System.out);
+            System.out.flush();
+        }
+    }
+
+    /**
+     * Gets the test ids in the store with the size of their logs.
+     *
+     * @return the size of each test's log in bytes, by test id
+     */
+    public Map<String, Long> getTestIds() {
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        index.forEach((id, ranges) -> sizes.put(id, ranges.stream().mapToLong(Range::length).sum()));
+        return sizes;
+    }
+
+    /**
+     * Reads a test's log. When there is no test with exactly this id, the logs of every
+     * test whose id starts with it are returned, e.g. every data provider row of a method.
+     *
+     * @param testId the test id, or the start of it
+     * @return the log, empty if no test matches
+     * @throws IOException if a segment cannot be read
+     */
+    public String read(String testId) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        extract(testId, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a test's log to a stream, see {@link #read(String)}.
+     *
+     * @param testId the test id, or the start of it
+     * @param out    the stream to write the log to
+     * @return the number of bytes written
+     * @throws IOException if a segment cannot be read or the stream cannot be written
+     */
+    public long extract(String testId, OutputStream out) throws IOException {
+        List<Range> ranges = index.containsKey(testId) ? index.get(testId) : matching(testId);
+        Map<Integer, FileChannel> segments = new HashMap<>();
+        long written = 0;
+        try {
+            for (Range range : ranges) {
+                FileChannel channel = segments.get(range.segment);
+                if (channel == null) {
+                    channel = FileChannel.open(directory.resolve(SegmentedLogAppender.segmentName(range.segment)),
+                            StandardOpenOption.READ);
+                    segments.put(range.segment, channel);
+                }
+                ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, range.offset, range.length);
+                byte[] buffer = new byte[range.length];
+                bytes.get(buffer);
+                out.write(buffer);
+                written += range.length;
+            }
+        } finally {
+            for (FileChannel channel : segments.values()) {
+                channel.close();
+            }
+        }
+        return written;
+    }
+
+    // The ranges of every test id with the prefix, ordered by where they were written
+    private List<Range> matching(String prefix) {
+        List<Range> ranges = new ArrayList<>();
+        index.forEach((id, idRanges) -> {
+            if (id.startsWith(prefix)) {
+                ranges.addAll(idRanges);
+            }
+        });
+        ranges.sort((a, b) -> a.segment != b.segment
+                ? Integer.compare(a.segment, b.segment)
+                : Long.compare(a.offset, b.offset));
+        return ranges;
+    }
+
+    private record Range(int segment, long offset, int length) {
+    }
+}
@@ -0,0 +1,103 @@
+package com.cmccarthyirl.common;
+
+import org.testng.IMethodInstance;
+import org.testng.IMethodInterceptor;
+import org.testng.ITestContext;
+
+import java.util.*;
+
+/**
+ * Runs this JVM's share of the test methods when the suite is started with `-Dshard=i/N`.
+ * The methods are split into N shards by their durations in the {@link RunHistory}: the longest method goes to
+ * the shard with the least work so far, and so on, so the shards take about as long as each other. A method without
+ * history counts as the median of the others. Every node computes the same split, as long as it has the same history
+ * file. Does nothing when the suite is not sharded.
+ */
+public class ShardInterceptor implements IMethodInterceptor {
+
+    private static final LogManager log = new LogManager(ShardInterceptor.class);
+
+    @Override
+    public List<IMethodInstance> intercept(List<IMethodInstance> methods, ITestContext context) {
+        TestShard shard = TestShard.fromSystemProperties();
+        if (shard == null || methods.isEmpty()) {
+            return methods;
+        }
+        List<String> keys = new ArrayList<>();
+        for (IMethodInstance method : methods) {
+            keys.add(RunHistory.key(method.getMethod()));
+        }
+        Split split = split(keys, RunHistory.get(), shard.count());
+
+        // Keep TestNG's order within the shard
+        List<IMethodInstance> result = new ArrayList<>();
+        for (int i = 0; i < methods.size(); i++) {
+            if (split.shards()[i] == shard.index() - 1) {
+                result.add(methods.get(i));
+            }
+        }
+        log.info("Shard {} of {} runs {} of its {} methods, an estimated {} ms of {} ms ({} without history)",
+                shard, context.getName(), result.size(), methods.size(), split.loads()[shard.index() - 1],
+                Arrays.stream(split.loads()).sum(), split.withoutHistory());
+        return result;
+    }
+
+    /**
+     * Splits the test methods into shards by their durations in the history.
+     *
+     * @param keys    the {@link RunHistory#key keys} of the methods
+     * @param history the history the durations are taken from
+     * @param count   the number of shards
+     * @return the shard of each method and the estimated duration of each shard
+     */
+    static Split split(List<String> keys, RunHistory history, int count) {
+        long[] estimates = new long[keys.size()];
+        boolean[] knownMethods = new boolean[keys.size()];
+        List<Long> known = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            Long estimate = history.estimate(keys.get(i));
+            if (estimate != null) {
+                estimates[i] = estimate;
+                knownMethods[i] = true;
+                known.add(estimate);
+            }
+        }
+        Collections.sort(known);
+        long unknown = known.isEmpty() ? 1 : Math.max(1, known.get(known.size() / 2));
+        for (int i = 0; i < keys.size(); i++) {
+            if (!knownMethods[i]) {
+                estimates[i] = unknown;
+            }
+        }
+
+        // Longest first, then by key, so the split does not depend on the order TestNG listed the methods in
+        List<Integer> ordered = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            ordered.add(i);
+        }
+        ordered.sort(Comparator.comparing((Integer i) -> estimates[i]).reversed().thenComparing(keys::get));
+        int[] shards = new int[keys.size()];
+        long[] loads = new long[count];
+        for (int method : ordered) {
+            int lightest = 0;
+            for (int i = 1; i < loads.length; i++) {
+                if (loads[i] < loads[lightest]) {
+                    lightest = i;
+                }
+            }
+            loads[lightest] += estimates[method];
+            shards[method] = lightest;
+        }
+        return new Split(shards, loads, keys.size() - known.size());
+    }
+
+    /**
+     * The outcome of {@link #split}.
+     *
+     * @param shards         the 0-based shard of each method, in the order of the keys
+     * @param loads          the estimated duration of each shard in milliseconds
+     * @param withoutHistory the number of methods that had no history
+     */
+    record Split(int[] shards, long[] loads, int withoutHistory) {
+    }
+}
@@ -1,5 +1,6 @@
 package com.cmccarthyirl.common;
 
+import org.testng.ITestContext;
 import org.testng.ITestListener;
 import org.testng.ITestResult;
 
@@ -8,27 +9,45 @@ public class TestListener implements ITestListener {
 
     @Override
     public void onTestStart(ITestResult result) {
-        logger.info("============= Starting test: " + result.getName() + " =============");
+        logger.info("============= Starting test: {} =============", result.getName());
     }
 
     @Override
     public void onTestSuccess(ITestResult result) {
-        logger.info("============= Passed test: " + result.getName() + " ==============");
+        logger.info("============= Passed test: {} ==============", result.getName());
+        recordRun(result, false);
+        ExtentTests.finishTest(result);
     }
 
     @Override
     public void onTestFailure(ITestResult result) {
-        logger.error("============= Failed test: " + result.getName() + " ==============");
-        logger.error("============= " + result.getThrowable() + " ==============");
+        logger.error("============= Failed test: {} ==============", result.getName());
+        logger.error("============= {} ==============", result.getThrowable());
+        recordRun(result, true);
+        ExtentTests.finishTest(result);
     }
 
     @Override
     public void onTestSkipped(ITestResult result) {
-        logger.warn("============= Skipped test: " + result.getName() + " ==============");
-        logger.warn("============= " + result.getThrowable() + " ==============");
+        logger.warn("============= Skipped test: {} ==============", result.getName());
+        logger.warn("============= {} ==============", result.getThrowable());
+        ExtentTests.finishTest(result);
     }
 
     @Override
     public void onTestFailedButWithinSuccessPercentage(ITestResult result) {
     }
+
+    @Override
+    public void onFinish(ITestContext context) {
+        // The history is used to split the next runs into shards and to order them, see ShardInterceptor and
+        // AdaptiveOrderInterceptor
+        RunHistory.get().save();
+    }
+
+    // Skipped tests did not run, so they say nothing about how long the test takes or whether it passes
+    private static void recordRun(ITestResult result, boolean failed) {
+        RunHistory.get().record(RunHistory.key(result.getMethod()), result.getEndMillis() - result.getStartMillis(),
+                failed);
+    }
 }
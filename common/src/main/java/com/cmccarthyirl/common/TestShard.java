@@ -0,0 +1,48 @@
+package com.cmccarthyirl.common;
+
+/**
+ * The part of the suite this JVM runs when the suite is split across several CI nodes, e.g. `-Dshard=2/4` for the
+ * second of four shards. See {@link ShardInterceptor}.
+ *
+ * @param index the 1-based index of the shard
+ * @param count the number of shards
+ */
+public record TestShard(int index, int count) {
+
+    public TestShard {
+        if (count < 1 || index < 1 || index > count) {
+            throw new IllegalArgumentException("Invalid shard " + index + "/" + count + ", expected e.g. 1/3");
+        }
+    }
+
+    /**
+     * Gets the shard from `-Dshard=i/N`.
+     *
+     * @return the shard, or null when the whole suite runs in this JVM
+     */
+    public static TestShard fromSystemProperties() {
+        String shard = System.getProperty("shard", "");
+        if (shard.isBlank()) {
+            return null;
+        }
+        String[] parts = shard.trim().split("/");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid shard " + shard + ", expected e.g. 1/3");
+        }
+        return new TestShard(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+    }
+
+    /**
+     * Gets the name of the shard for file names, e.g. shard-2-of-4.
+     *
+     * @return the name of the shard
+     */
+    public String getName() {
+        return "shard-" + index + "-of-" + count;
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
@@ -0,0 +1,82 @@
+package com.cmccarthyirl.common;
+
+import org.slf4j.MDC;
+import org.testng.*;
+
+/**
+ * Adds the suites, test classes, configuration methods and test methods of the run to the {@link TraceWriter}
+ * timeline. Test and configuration methods are spans on the lane of the thread that ran them, while suites and
+ * classes, whose methods can run on several threads, are spans of their own. Does nothing when the run is not traced.
+ */
+public class TraceListener implements ISuiteListener, IClassListener, IInvokedMethodListener {
+
+    // When the method running on the current thread started
+    private static final ThreadLocal<Long> startThreadLocal = new ThreadLocal<>();
+
+    @Override
+    public void onStart(ISuite suite) {
+        TraceWriter trace = TraceWriter.get();
+        if (trace != null) {
+            trace.nameProcess(suite.getName());
+            trace.begin(suite.getName(), "suite", "suite:" + suite.getName());
+        }
+    }
+
+    @Override
+    public void onFinish(ISuite suite) {
+        TraceWriter trace = TraceWriter.get();
+        if (trace != null) {
+            trace.end(suite.getName(), "suite", "suite:" + suite.getName());
+        }
+    }
+
+    @Override
+    public void onBeforeClass(ITestClass testClass) {
+        TraceWriter trace = TraceWriter.get();
+        if (trace != null) {
+            trace.begin(testClass.getRealClass().getSimpleName(), "class", "class:" + testClass.getName());
+        }
+    }
+
+    @Override
+    public void onAfterClass(ITestClass testClass) {
+        TraceWriter trace = TraceWriter.get();
+        if (trace != null) {
+            trace.end(testClass.getRealClass().getSimpleName(), "class", "class:" + testClass.getName());
+        }
+    }
+
+    @Override
+    public void beforeInvocation(IInvokedMethod method, ITestResult testResult) {
+        if (TraceWriter.get() != null) {
+            startThreadLocal.set(System.nanoTime());
+        }
+    }
+
+    @Override
+    public void afterInvocation(IInvokedMethod method, ITestResult testResult) {
+        TraceWriter trace = TraceWriter.get();
+        Long start = startThreadLocal.get();
+        if (trace == null || start == null) {
+            return;
+        }
+        startThreadLocal.remove();
+        ITestNGMethod testMethod = method.getTestMethod();
+        String category = method.isTestMethod() ? "test"
+                : testMethod.isBeforeMethodConfiguration() || testMethod.isBeforeClassConfiguration()
+                || testMethod.isBeforeTestConfiguration() || testMethod.isBeforeSuiteConfiguration() ? "setup" : "teardown";
+        // The test id is set in the MDC by the @BeforeMethod of the base test classes
+        String testId = MDC.get("testId");
+        String detail = testId == null ? statusName(testResult.getStatus()) : testId + " " + statusName(testResult.getStatus());
+        trace.complete(testMethod.getMethodName(), category, System.nanoTime() - start, detail);
+    }
+
+    private static String statusName(int status) {
+        return switch (status) {
+            case ITestResult.SUCCESS -> "passed";
+            case ITestResult.FAILURE -> "failed";
+            case ITestResult.SKIP -> "skipped";
+            default -> "running";
+        };
+    }
+}
@@ -0,0 +1,252 @@
+package com.cmccarthyirl.common;
+
+import com.google.gson.Gson;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Streams a timeline of the run in the Chrome trace-event format, which opens in Perfetto (ui.perfetto.dev) or
+ * chrome://tracing, with a lane per thread. The run is traced when it is started with `-Dtrace=true`, to
+ * `target/trace.json` unless `trace.file` names another file.
+ * <p>
+ * The test threads only put events on a bounded queue, which a background writer drains in batches into a buffered
+ * file, so tracing costs little enough to leave on. Events are dropped, and counted, rather than ever blocking a test
+ * when the queue is full. The file is a valid trace while it is written, so the timeline of a killed run still opens.
+ */
+public class TraceWriter {
+
+    public static final String TRACE_PATH = "target/trace.json";
+
+    private static final int MAX_BATCH = 1024;
+    private static final Gson gson = new Gson();
+    // Microseconds since the epoch at nanoTime() 0, so the timelines of parallel forks line up
+    private static final long ORIGIN_MICROS = System.currentTimeMillis() * 1000 - System.nanoTime() / 1000;
+    private static final long PID = ProcessHandle.current().pid();
+    // Tells the writer to finish the file
+    private static final TraceEvent END = new TraceEvent('M', "end", null, 0, 0, 0, null, null);
+    private static final TraceWriter instance = fromSystemProperties();
+
+    private final Path path;
+    private final BlockingQueue<TraceEvent> queue;
+    private final Thread writer;
+    // Whether the current thread's name has been written, so its lane is labelled
+    private final ThreadLocal<Boolean> named = ThreadLocal.withInitial(() -> false);
+    private volatile boolean closed;
+
+    // Counters
+    private final LongAdder events = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    /**
+     * Creates the trace file and starts its background writer.
+     *
+     * @param path     the trace file
+     * @param capacity the size of the queue
+     * @throws IOException if the trace file cannot be created
+     */
+    public TraceWriter(Path path, int capacity) throws IOException {
+        this.path = path;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        BufferedWriter output = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        this.writer = new Thread(() -> drain(output), "trace-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "trace-shutdown"));
+    }
+
+    /**
+     * Gets the trace writer of the run.
+     *
+     * @return the trace writer, or null when the run is not traced
+     */
+    public static TraceWriter get() {
+        return instance;
+    }
+
+    /**
+     * Adds a span that has just ended to the current thread's lane.
+     *
+     * @param name          the name of the span
+     * @param category      the category of the span, e.g. page
+     * @param durationNanos how long it took
+     * @param detail        a detail shown with the span, or null
+     */
+    public void complete(String name, String category, long durationNanos, String detail) {
+        long end = System.nanoTime();
+        enqueue('X', name, category, micros(end - durationNanos), Math.max(0, durationNanos / 1000), null, detail);
+    }
+
+    /**
+     * Starts a span that is not tied to one thread, e.g. a test class whose methods run on several threads.
+     *
+     * @param name     the name of the span
+     * @param category the category of the span
+     * @param id       the id that {@link #end(String, String, String)} is called with
+     */
+    public void begin(String name, String category, String id) {
+        enqueue('b', name, category, micros(System.nanoTime()), 0, id, null);
+    }
+
+    /**
+     * Ends a span started with {@link #begin(String, String, String)}.
+     *
+     * @param name     the name of the span
+     * @param category the category of the span
+     * @param id       the id of the span
+     */
+    public void end(String name, String category, String id) {
+        enqueue('e', name, category, micros(System.nanoTime()), 0, id, null);
+    }
+
+    /**
+     * Labels the process of the trace, e.g. with the suite name.
+     *
+     * @param name the name of the process
+     */
+    public void nameProcess(String name) {
+        enqueue('M', "process_name", null, 0, 0, null, name);
+    }
+
+    /**
+     * Writes the queued events and closes the trace file. Later events are dropped.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (queue.offer(END, 10, TimeUnit.SECONDS)) {
+                writer.join(TimeUnit.SECONDS.toMillis(10));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Summarises the writer counters in a single line.
+     *
+     * @return the writer counters
+     */
+    public String describeMetrics() {
+        return path + ": events=" + events.sum() + ", dropped=" + dropped.sum() + ", batches=" + batches.sum();
+    }
+
+    private static TraceWriter fromSystemProperties() {
+        if (!Boolean.getBoolean("trace")) {
+            return null;
+        }
+        Path path = Paths.get(System.getProperty("trace.file", TRACE_PATH));
+        try {
+            return new TraceWriter(path, Integer.parseInt(System.getProperty("trace.queueSize", "65536")));
+        } catch (IOException ex) {
+            System.err.println("Failed to create the trace file " + path + ": " + ex);
+            return null;
+        }
+    }
+
+    private static long micros(long nanos) {
+        return ORIGIN_MICROS + nanos / 1000;
+    }
+
+    private void enqueue(char phase, String name, String category, long timestamp, long duration, String id, String detail) {
+        if (closed) {
+            return;
+        }
+        Thread thread = Thread.currentThread();
+        if (!named.get()) {
+            named.set(true);
+            offer(new TraceEvent('M', "thread_name", null, 0, 0, thread.getId(), null, thread.getName()));
+        }
+        offer(new TraceEvent(phase, name, category, timestamp, duration, thread.getId(), id, detail));
+    }
+
+    private void offer(TraceEvent event) {
+        if (queue.offer(event)) {
+            events.increment();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    // Each batch is flushed, so the file trails the run by one batch at most
+    private void drain(BufferedWriter output) {
+        List<TraceEvent> batch = new ArrayList<>(MAX_BATCH);
+        boolean first = true;
+        try (Writer out = output) {
+            out.write("[");
+            boolean ended = false;
+            while (!ended) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                ended = batch.remove(END);
+                first = write(out, batch, first);
+                out.flush();
+                batches.increment();
+                batch.clear();
+            }
+            out.write("\n]\n");
+        } catch (IOException ex) {
+            System.err.println("Failed to write the trace file " + path + ": " + ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean write(Writer out, List<TraceEvent> batch, boolean first) throws IOException {
+        for (TraceEvent event : batch) {
+            out.write(first ? "\n" : ",\n");
+            out.write(event.toJson());
+            first = false;
+        }
+        return first;
+    }
+
+    private record TraceEvent(char phase, String name, String category, long timestamp, long duration, long tid,
+                              String id, String detail) {
+
+        String toJson() {
+            StringBuilder json = new StringBuilder(160);
+            json.append("{\"ph\":\"").append(phase).append("\",\"name\":").append(gson.toJson(name))
+                    .append(",\"pid\":").append(PID).append(",\"tid\":").append(tid);
+            if (category != null) {
+                json.append(",\"cat\":").append(gson.toJson(category));
+            }
+            if (phase != 'M') {
+                json.append(",\"ts\":").append(timestamp);
+            }
+            if (phase == 'X') {
+                json.append(",\"dur\":").append(duration);
+            }
+            if (id != null) {
+                json.append(",\"id\":").append(gson.toJson(id));
+            }
+            if (detail != null) {
+                json.append(",\"args\":{\"").append(phase == 'M' ? "name" : "detail").append("\":")
+                        .append(gson.toJson(detail)).append('}');
+            }
+            return json.append('}').toString();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.cmccarthyirl.common;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class LatencyHistogramTest {
+
+    @Test(description = "Values below 16 us get a bucket each, each power of two above is split into 16 buckets")
+    public void testBucketBoundaries() {
+        Assert.assertEquals(LatencyHistogram.bucketOf(0), 0);
+        Assert.assertEquals(LatencyHistogram.bucketOf(15), 15);
+        Assert.assertEquals(LatencyHistogram.bucketOf(16), 16);
+        Assert.assertEquals(LatencyHistogram.bucketOf(31), 31);
+        Assert.assertEquals(LatencyHistogram.bucketOf(32), 32);
+        Assert.assertEquals(LatencyHistogram.bucketOf(33), 32);
+        Assert.assertEquals(LatencyHistogram.bucketOf(34), 33);
+        Assert.assertEquals(LatencyHistogram.bucketOf(63), 47);
+        Assert.assertEquals(LatencyHistogram.bucketOf(64), 48);
+
+        Assert.assertEquals(LatencyHistogram.lowerBound(16), 16);
+        Assert.assertEquals(LatencyHistogram.bucketWidth(31), 1);
+        Assert.assertEquals(LatencyHistogram.lowerBound(32), 32);
+        Assert.assertEquals(LatencyHistogram.bucketWidth(32), 2);
+    }
+
+    @Test(description = "Every value falls inside its bucket, and the buckets are contiguous")
+    public void testBucketsCoverEveryValue() {
+        long expectedLower = 0;
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+            Assert.assertEquals(LatencyHistogram.lowerBound(bucket), expectedLower, "Lower bound of bucket " + bucket);
+            expectedLower += LatencyHistogram.bucketWidth(bucket);
+        }
+        Assert.assertEquals(expectedLower - 1, LatencyHistogram.MAX_MICROS);
+
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long micros = random.nextLong(LatencyHistogram.MAX_MICROS + 1);
+            int bucket = LatencyHistogram.bucketOf(micros);
+            long lower = LatencyHistogram.lowerBound(bucket);
+            Assert.assertTrue(lower <= micros && micros < lower + LatencyHistogram.bucketWidth(bucket),
+                    micros + " us is outside bucket " + bucket);
+        }
+    }
+
+    @Test(description = "Durations above the largest bucket, and negative ones, are clamped")
+    public void testMaxValue() {
+        Assert.assertEquals(LatencyHistogram.BUCKETS, 528);
+        Assert.assertEquals(LatencyHistogram.bucketOf(LatencyHistogram.MAX_MICROS), LatencyHistogram.BUCKETS - 1);
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-5);
+        Assert.assertEquals(histogram.getCount(), 2);
+        Assert.assertEquals(histogram.getMaxMicros(), LatencyHistogram.MAX_MICROS);
+        // The middle of the last bucket, which is below the maximum
+        Assert.assertEquals(LatencyHistogram.bucketOf(histogram.getPercentileMicros(1.0)), LatencyHistogram.BUCKETS - 1);
+        Assert.assertEquals(histogram.getPercentileMicros(0.5), 0);
+    }
+
+    @Test(description = "Small durations are exact and nothing recorded gives 0")
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(histogram.getPercentileMicros(0.99), 0);
+        for (long micros = 1; micros <= 10; micros++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+        Assert.assertEquals(histogram.getPercentileMicros(0.5), 5);
+        Assert.assertEquals(histogram.getPercentileMicros(0.9), 9);
+        Assert.assertEquals(histogram.getPercentileMicros(1.0), 10);
+        Assert.assertEquals(histogram.getTotalMicros(), 55);
+    }
+
+    @Test(description = "A percentile is within the bucket resolution (1/16) of the exact value")
+    public void testPercentileAccuracy() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(7);
+        long[] values = new long[200_000];
+        for (int i = 0; i < values.length; i++) {
+            // Log-normal around a few milliseconds, with a long tail
+            values[i] = Math.max(1, (long) Math.exp(8 + 1.5 * random.nextGaussian()));
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(values[i]));
+        }
+        Arrays.sort(values);
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            long exact = values[(int) Math.ceil(quantile * values.length) - 1];
+            long estimate = histogram.getPercentileMicros(quantile);
+            Assert.assertTrue(Math.abs(estimate - exact) <= exact / 16.0 + 1,
+                    "p" + quantile * 100 + " was " + estimate + " us instead of " + exact + " us");
+        }
+        Assert.assertEquals(histogram.getMaxMicros(), values[values.length - 1]);
+    }
+}
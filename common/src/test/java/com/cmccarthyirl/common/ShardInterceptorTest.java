@@ -0,0 +1,90 @@
+package com.cmccarthyirl.common;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class ShardInterceptorTest {
+
+    // The durations of the methods in the history, in milliseconds
+    private static final long[] DURATIONS = {9000, 7000, 6500, 4000, 3800, 3000, 2500, 1200, 1100, 900, 400, 350, 120, 80};
+
+    private RunHistory history;
+    private List<String> keys;
+
+    @BeforeClass
+    public void writeHistory() throws IOException {
+        keys = new ArrayList<>();
+        StringBuilder json = new StringBuilder("{");
+        for (int i = 0; i < DURATIONS.length; i++) {
+            String key = "Regression#com.example.SearchTest#test" + i;
+            keys.add(key);
+            json.append(i == 0 ? "" : ",").append('"').append(key).append("\":{\"averageMs\":").append(DURATIONS[i])
+                    .append(",\"runs\":5,\"outcomes\":5,\"failures\":0}");
+        }
+        Path file = Files.createTempFile("test-history", ".json");
+        file.toFile().deleteOnExit();
+        Files.writeString(file, json.append('}').toString());
+        history = new RunHistory(file);
+    }
+
+    @Test(description = "The same methods are split the same way, whatever order TestNG lists them in")
+    public void testSplitIsDeterministic() {
+        Map<String, Integer> expected = shardsByKey(keys, 3);
+        List<String> shuffled = new ArrayList<>(keys);
+        for (long seed = 1; seed <= 5; seed++) {
+            Collections.shuffle(shuffled, new Random(seed));
+            Assert.assertEquals(shardsByKey(shuffled, 3), expected, "Split of the order with seed " + seed);
+        }
+    }
+
+    @Test(description = "Every method runs in exactly one shard and the shards take about as long as each other")
+    public void testSplitIsBalanced() {
+        for (int count = 1; count <= 4; count++) {
+            ShardInterceptor.Split split = ShardInterceptor.split(keys, history, count);
+            long[] loads = new long[count];
+            for (int i = 0; i < keys.size(); i++) {
+                int shard = split.shards()[i];
+                Assert.assertTrue(shard >= 0 && shard < count, "Shard of " + keys.get(i) + " out of range: " + shard);
+                loads[shard] += DURATIONS[i];
+            }
+            Assert.assertEquals(split.loads(), loads, "Estimated loads of " + count + " shards");
+            Assert.assertEquals(Arrays.stream(loads).sum(), Arrays.stream(DURATIONS).sum());
+            // Longest first onto the lightest shard leaves the shards at most one method apart
+            long spread = Arrays.stream(loads).max().getAsLong() - Arrays.stream(loads).min().getAsLong();
+            Assert.assertTrue(spread <= DURATIONS[0], "Loads of " + count + " shards: " + Arrays.toString(loads));
+        }
+        long[] loads = ShardInterceptor.split(keys, history, 3).loads();
+        Assert.assertEquals(loads, new long[]{13300, 13300, 13350});
+    }
+
+    @Test(description = "A method without history counts as the median method")
+    public void testMethodWithoutHistoryCountsAsMedian() {
+        List<String> withNew = new ArrayList<>(keys);
+        withNew.add("Regression#com.example.SearchTest#newTest");
+        ShardInterceptor.Split split = ShardInterceptor.split(withNew, history, 2);
+        Assert.assertEquals(split.withoutHistory(), 1);
+        long median = DURATIONS[DURATIONS.length - 1 - DURATIONS.length / 2];
+        Assert.assertEquals(Arrays.stream(split.loads()).sum(), Arrays.stream(DURATIONS).sum() + median);
+    }
+
+    private Map<String, Integer> shardsByKey(List<String> order, int count) {
+        int[] shards = ShardInterceptor.split(order, history, count).shards();
+        Map<String, Integer> byKey = new HashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            byKey.put(order.get(i), shards[i]);
+        }
+        return byKey;
+    }
+}
@@ -1,10 +1,30 @@
 package com.cmccarthyirl.ui.page;
 
+import com.cmccarthyirl.common.PhaseTimings;
 import com.cmccarthyirl.ui.utils.PlaywrightManager;
 import com.microsoft.playwright.Page;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
 public abstract class AbstractPage {
 
+    // Reads every selector of a snapshot in one evaluation, rather than one round-trip per element
+    private static final String SNAPSHOT_SCRIPT = "queries => queries.map(query => {"
+            + " const elements = Array.from(document.querySelectorAll(query.selector));"
+            + " const attributes = {};"
+            + " query.attributes.forEach(name => attributes[name] = elements.map(e => e.getAttribute(name)));"
+            + " return { texts: elements.map(e => e.innerText), attributes: attributes };"
+            + "})";
+
+    private static final String PAGE_ACTION = "page.action";
+
+    // Number of driver round-trips made by the pages of the current test thread
+    private static final ThreadLocal<int[]> rpcCount = ThreadLocal.withInitial(() -> new int[1]);
+
     // Instance of BrowserManager to manage browser interactions for the page
     private final PlaywrightManager playwrightManager;
 
@@ -29,4 +49,122 @@ public abstract class AbstractPage {
         return playwrightManager.getPage();
     }
 
+    /**
+     * Navigates the current page to a URL. The navigation is skipped when the page was already
+     * navigated to the URL while the session was prepared in the background.
+     *
+     * @param url the URL to navigate to
+     */
+    public void navigate(String url) {
+        if (playwrightManager.consumePrefetchedNavigation(url)) {
+            return;
+        }
+        Page page = getPage();
+        rpc("page.navigate", () -> page.navigate(url));
+    }
+
+    /**
+     * Gets the number of driver round-trips made through the pages of the current test thread, and starts counting again.
+     *
+     * @return the number of round-trips since the last reset
+     */
+    public static int resetRpcCount() {
+        int[] count = rpcCount.get();
+        int previous = count[0];
+        count[0] = 0;
+        return previous;
+    }
+
+    /**
+     * Reads the count, inner texts and attributes of the elements matched by a set of CSS selectors
+     * in a single round-trip.
+     *
+     * @param attributes the attributes to read, by selector (an empty list for just the count and texts)
+     * @return the snapshot of the selectors
+     */
+    protected DomSnapshot snapshot(Map<String, List<String>> attributes) {
+        List<Map<String, Object>> queries = new ArrayList<>();
+        attributes.forEach((selector, names) -> queries.add(Map.of("selector", selector, "attributes", names)));
+        Page page = getPage();
+        List<?> results = (List<?>) rpc("page.snapshot", () -> page.evaluate(SNAPSHOT_SCRIPT, queries));
+
+        Map<String, DomSnapshot.Entry> entries = new LinkedHashMap<>();
+        int index = 0;
+        for (String selector : attributes.keySet()) {
+            Map<?, ?> result = (Map<?, ?>) results.get(index++);
+            Map<String, List<String>> values = new LinkedHashMap<>();
+            ((Map<?, ?>) result.get("attributes")).forEach((name, list) -> values.put((String) name, strings(list)));
+            entries.put(selector, new DomSnapshot.Entry(strings(result.get("texts")), values));
+        }
+        return new DomSnapshot(entries);
+    }
+
+    /**
+     * Reads the count and inner texts of the elements matched by a set of CSS selectors in a single round-trip.
+     *
+     * @param selectors the selectors to read
+     * @return the snapshot of the selectors
+     */
+    protected DomSnapshot snapshot(String... selectors) {
+        Map<String, List<String>> attributes = new LinkedHashMap<>();
+        for (String selector : selectors) {
+            attributes.put(selector, List.of());
+        }
+        return snapshot(attributes);
+    }
+
+    /**
+     * Makes a call to the driver, counting it as a round-trip of the current test and timing it as a page action.
+     * With shared drivers the call runs on a dispatcher thread, so it must not call {@link #getPage()}.
+     *
+     * @param call the driver call
+     * @param <T>  the type of the result
+     * @return the result of the call
+     */
+    protected <T> T rpc(Supplier<T> call) {
+        return rpc(PAGE_ACTION, call);
+    }
+
+    /**
+     * Makes a call to the driver, counting it as a round-trip of the current test and timing it as the given phase.
+     *
+     * @param phase the phase of the test the call is timed as, e.g. page.wait
+     * @param call  the driver call
+     * @param <T>   the type of the result
+     * @return the result of the call
+     */
+    protected <T> T rpc(String phase, Supplier<T> call) {
+        rpcCount.get()[0]++;
+        return PhaseTimings.time(phase, () -> playwrightManager.call(call));
+    }
+
+    /**
+     * Makes a call to the driver, counting it as a round-trip of the current test and timing it as a page action.
+     *
+     * @param call the driver call
+     */
+    protected void rpc(Runnable call) {
+        rpc(PAGE_ACTION, call);
+    }
+
+    /**
+     * Makes a call to the driver, counting it as a round-trip of the current test and timing it as the given phase.
+     *
+     * @param phase the phase of the test the call is timed as
+     * @param call  the driver call
+     */
+    protected void rpc(String phase, Runnable call) {
+        rpc(phase, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    private static List<String> strings(Object list) {
+        List<String> strings = new ArrayList<>();
+        for (Object value : (List<?>) list) {
+            strings.add(value == null ? null : value.toString());
+        }
+        return strings;
+    }
 }
@@ -0,0 +1,54 @@
+package com.cmccarthyirl.ui.page;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of {@link AbstractPage#snapshot}: the count, inner texts and requested attributes
+ * of the elements matched by each selector, all read in a single round-trip to the browser.
+ */
+public class DomSnapshot {
+
+    private final Map<String, Entry> entries;
+
+    DomSnapshot(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * @param selector one of the selectors of the snapshot
+     * @return the number of elements matched by the selector
+     */
+    public int count(String selector) {
+        return entry(selector).texts.size();
+    }
+
+    /**
+     * @param selector one of the selectors of the snapshot
+     * @return the inner text of each element matched by the selector, in document order
+     */
+    public List<String> texts(String selector) {
+        return entry(selector).texts;
+    }
+
+    /**
+     * @param selector  one of the selectors of the snapshot
+     * @param attribute one of the attributes requested for the selector
+     * @return the attribute of each element matched by the selector (null where it is not set)
+     */
+    public List<String> attributes(String selector, String attribute) {
+        return entry(selector).attributes.getOrDefault(attribute, Collections.emptyList());
+    }
+
+    private Entry entry(String selector) {
+        Entry entry = entries.get(selector);
+        if (entry == null) {
+            throw new IllegalArgumentException("The snapshot has no selector " + selector);
+        }
+        return entry;
+    }
+
+    record Entry(List<String> texts, Map<String, List<String>> attributes) {
+    }
+}
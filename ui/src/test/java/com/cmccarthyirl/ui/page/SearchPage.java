@@ -2,35 +2,37 @@ package com.cmccarthyirl.ui.page;
 
 import com.cmccarthyirl.common.LogManager;
 import com.cmccarthyirl.ui.utils.PlaywrightManager;
-import com.microsoft.playwright.Page;
+import com.microsoft.playwright.Locator;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
 import static com.microsoft.playwright.options.WaitForSelectorState.ATTACHED;
 import static com.microsoft.playwright.options.WaitForSelectorState.DETACHED;
 
 public class SearchPage extends AbstractPage {
 
-    // The page object used to interact with the current browser page
-    private final Page page;
-
-    // Locators for the search bar and various book elements
-    private final String locator_searchBar = "#searchBar";
-    private final String locator_hiddenBooks = "li.ui-screen-hidden";
-    private String locator_visibleBooks = "li:not(.ui-screen-hidden)";
-    private String locator_visibleBookTitles = "li:not(.ui-screen-hidden) h2";
+    // Selectors of the search results, read together in one snapshot
+    private static final String VISIBLE_BOOKS = "li:not(.ui-screen-hidden)";
+    private static final String VISIBLE_BOOK_TITLES = "li:not(.ui-screen-hidden) h2";
     private static final LogManager log = new LogManager(SearchPage.class);
 
+    // Locators for the search bar and the hidden books, created once per page
+    private final Locator searchBar;
+    private final Locator firstHiddenBook;
+
+    // The search results, read once after each search rather than on every call
+    private DomSnapshot results;
+
     /**
      * Constructor for SearchPage class.
-     * Initializes the page object by calling the parent constructor and getting the current page.
+     * Initializes the page object by calling the parent constructor and creating the locators on the current page.
      *
      * @param playwrightManager the BrowserManager instance used to interact with the browser
      */
     public SearchPage(PlaywrightManager playwrightManager) {
         super(playwrightManager);  // Call parent constructor to initialize BrowserManager
-        page = getPage();  // Get the current page object from BrowserManager
+        searchBar = getPage().locator("#searchBar");
+        firstHiddenBook = getPage().locator("li.ui-screen-hidden").first();
     }
 
     /**
@@ -40,21 +42,22 @@ public class SearchPage extends AbstractPage {
      */
     public void search(String query) {
         clearSearchBar();  // Clear any existing search term in the search bar
-        page.fill(locator_searchBar, query);  // Fill the search bar with the given query
-        log.info("The user searched for " + query);
+        rpc(() -> searchBar.fill(query));  // Fill the search bar with the given query
+        log.info("The user searched for {}", query);
         // Wait for the hidden books to be attached to the DOM, indicating the search results are being updated
-        var expectedState = new Page.WaitForSelectorOptions().setState(ATTACHED);
-        page.waitForSelector(locator_hiddenBooks, expectedState);
+        rpc("page.wait", () -> firstHiddenBook.waitFor(new Locator.WaitForOptions().setState(ATTACHED)));
+        results = null;
     }
 
     /**
      * Clears the search bar by filling it with an empty string and waits for the search results to disappear.
      */
     public void clearSearchBar() {
-        page.fill(locator_searchBar, "");  // Clear the search bar
+        rpc(() -> searchBar.fill(""));  // Clear the search bar
         log.info("The user cleared the search field");
-        var expectedState = new Page.WaitForSelectorOptions().setState(DETACHED);
-        page.waitForSelector(locator_hiddenBooks, expectedState);  // Wait for the hidden books to be detached from the DOM
+        // Wait for the hidden books to be detached from the DOM
+        rpc("page.wait", () -> firstHiddenBook.waitFor(new Locator.WaitForOptions().setState(DETACHED)));
+        results = null;
     }
 
     /**
@@ -63,8 +66,7 @@ public class SearchPage extends AbstractPage {
      * @return the count of visible books
      */
     public int getNumberOfVisibleBooks() {
-        // Query for all visible books and return the size of the result
-        return page.querySelectorAll(locator_visibleBooks).size();
+        return getResults().count(VISIBLE_BOOKS);
     }
 
     /**
@@ -73,10 +75,14 @@ public class SearchPage extends AbstractPage {
      * @return a list of visible book titles
      */
     public List<String> getVisibleBooks() {
-        // Query for all visible book titles, extract their inner text, and return it as a list
-        return page.querySelectorAll(locator_visibleBookTitles)
-                .stream()
-                .map(e -> e.innerText())  // Extract the inner text (title) from each book element
-                .collect(Collectors.toList());  // Collect the titles into a list
+        return getResults().texts(VISIBLE_BOOK_TITLES);
+    }
+
+    // Reads the visible books and their titles in a single round-trip
+    private DomSnapshot getResults() {
+        if (results == null) {
+            results = snapshot(VISIBLE_BOOKS, VISIBLE_BOOK_TITLES);
+        }
+        return results;
     }
 }
@@ -1,28 +1,39 @@
 package com.cmccarthyirl.ui.test;
 
 import com.cmccarthyirl.common.*;
+import com.cmccarthyirl.ui.page.AbstractPage;
+import com.cmccarthyirl.ui.utils.FailureArtifacts;
+import com.cmccarthyirl.ui.utils.HarArchive;
 import com.cmccarthyirl.ui.utils.PlaywrightManager;
 import org.slf4j.MDC;
+import org.testng.IHookCallBack;
+import org.testng.IHookable;
 import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
 import org.testng.ITestResult;
-import org.testng.annotations.AfterClass;
-import org.testng.annotations.BeforeMethod;
-import org.testng.annotations.BeforeSuite;
-import org.testng.annotations.Listeners;
+import org.testng.SkipException;
+import org.testng.annotations.*;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlTest;
 
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Properties;
 
-@Listeners({TestListener.class})
-public class BaseUITests {
+@Listeners({TestListener.class, TraceListener.class, ShardInterceptor.class, AdaptiveOrderInterceptor.class,
+        FailFastListener.class})
+public class BaseUITests implements IHookable {
 
+    private static final LogManager log = new LogManager(BaseUITests.class);
     private final MDCModel mdcModel = new MDCModel();
     // Instance of BrowserManager to handle browser setup and management
     private final PlaywrightManager playwrightManager = new PlaywrightManager();
+    // The configuration is loaded once and shared (read-only) by every test thread
+    private static volatile Properties properties;
 
     /**
-     * Set up the test suite by initializing the browser and loading the necessary configurations.
+     * Set up the test suite by loading the necessary configurations.
      * This method is executed once before the tests start running in the suite.
      *
      * @throws IOException if there is an issue reading the properties file.
@@ -31,32 +42,67 @@ public class BaseUITests {
     public void setUp() throws IOException {
         // Load the configuration properties (like browser settings, headless mode, etc based on the maven profile)
         String configFile = System.getProperty("config.file", "default-config.properties");
-        Properties properties = new ReadPropertyFile().loadProperties("./" + configFile);
+        properties = new ReadPropertyFile().loadProperties("./" + configFile);
+    }
 
-        // Create a new browser instance using the loaded properties
-        playwrightManager.createBrowser(properties);
+    /**
+     * Warm up the shared browser pool of the engine this TestNG test runs on.
+     * A matrix suite runs one TestNG test per engine, e.g. with {@code <parameter name="browser" value="webkit"/>}.
+     *
+     * @param context the TestNG context, used to pick the engine and size its browser pool to the number of workers.
+     */
+    @BeforeTest(alwaysRun = true)
+    public void setUpEngine(ITestContext context) {
+        playwrightManager.createBrowser(properties, getWorkerCount(context), getEngine(context));
     }
 
     @BeforeMethod(alwaysRun = true)
     public void beforeMethod(Method method, ITestContext context, ITestResult iTestResult) {
+        // The phases of the test start with leasing its browser
+        PhaseTimings.startTest();
         String methodName = method.getName();
         String logFileName = "UI-" + methodName;
 
         // Set log file name in MDC
         MDC.put("logFileName", logFileName);
+        // Data provider rows share a log file name, so the test id of the log store also has the parameters
+        Object[] parameters = iTestResult.getParameters();
+        MDC.put("testId", parameters.length == 0 ? logFileName : logFileName + Arrays.toString(parameters));
 
         // Update model name
         mdcModel.setName(logFileName);
 
-        // Check if a test method needs to be created or updated
-        boolean isTestMethodValid = ExtentTests.getTest() != null
-                && ExtentTests.getTest().getModel().getName().equals(methodName);
+        // Create the test's report node, or look up the shared node of its method by TestNG test, class and method
+        ExtentTests.createOrUpdateTestMethod(iTestResult, false);
 
-        // Create or update the test if necessary
-        if (ExtentTests.getTest() == null || !isTestMethodValid) {
-            ExtentTests.createOrUpdateTestMethod(iTestResult, false);
-        }
+        // Lease a browser and open an isolated context and page for this test
+        playwrightManager.openSession(getEngine(context), method.getDeclaringClass().getSimpleName(), methodName);
+    }
 
+    /**
+     * Runs the test method, then fails it if it made requests that were missing from its HAR archive in strict replay mode.
+     * This runs as part of the test, so the failure is reported as the test's own, unlike one in an @AfterMethod.
+     * The artifacts of a failed test are captured here too, while its page is still open.
+     *
+     * @param callBack   the callback that runs the test method
+     * @param testResult the result of the test
+     */
+    @Override
+    public void run(IHookCallBack callBack, ITestResult testResult) {
+        PhaseTimings.timeTestBody(() -> callBack.runTestMethod(testResult));
+        HarArchive har = playwrightManager.getHarArchive();
+        // A test that already failed keeps its own failure
+        AssertionError unmatched = har != null && har.isStrict() && testResult.getThrowable() == null
+                && !har.getUnmatched().isEmpty()
+                ? new AssertionError("Requests missing from the HAR archive: " + har.getUnmatched()) : null;
+        // A skipped test has a throwable too
+        boolean failed = testResult.getThrowable() != null && !(testResult.getThrowable() instanceof SkipException);
+        if (failed || unmatched != null) {
+            playwrightManager.captureFailureArtifacts(MDC.get("testId"));
+        }
+        if (unmatched != null) {
+            throw unmatched;
+        }
     }
 
     /**
@@ -70,21 +116,117 @@ public class BaseUITests {
     }
 
     /**
-     * Clean up after the tests are complete by closing the page, browser, and Playwright instance.
-     * This method is executed once after all the tests in the class have run.
+     * Close the test's context and page and return its browser to the pool.
+     * This method is executed after every test method.
+     */
+    @AfterMethod(alwaysRun = true)
+    public void afterMethod() {
+        log.info("The test made {} driver round-trips", AbstractPage.resetRpcCount());
+        playwrightManager.closeSession();
+        PhaseTimings.finishTest(MDC.get("testId"));
+    }
+
+    /**
+     * Write the report once all the tests in the class have run.
      */
-    @AfterClass
+    @AfterClass(alwaysRun = true)
     public void tearDown() {
-        // Close the currently opened page
-        playwrightManager.getPage().close();
+        ExtentReporter.flush();
+    }
 
-        // Close the browser
-        playwrightManager.getBrowser().close();
+    /**
+     * Close the shared browser pool once the whole suite has run.
+     */
+    @AfterSuite(alwaysRun = true)
+    public void afterSuite() {
+        PlaywrightManager.getBrowserPools().forEach((engine, pool) ->
+                ExtentReporter.setSystemInfo("Browser pool (" + engine + ")", pool.describeMetrics()));
+        if (PlaywrightManager.getScheduler() != null) {
+            ExtentReporter.setSystemInfo("Browser scheduler", PlaywrightManager.getScheduler().describeMetrics());
+        }
+        if (PlaywrightManager.describeBrowserServerMetrics() != null) {
+            ExtentReporter.setSystemInfo("Browser server", PlaywrightManager.describeBrowserServerMetrics());
+        }
+        if (PlaywrightDriver.describeAll() != null) {
+            ExtentReporter.setSystemInfo("Playwright drivers", PlaywrightDriver.describeAll());
+        }
+        if (PlaywrightManager.describePrefetchMetrics() != null) {
+            ExtentReporter.setSystemInfo("Session prefetch", PlaywrightManager.describePrefetchMetrics());
+        }
+        if (PlaywrightManager.getAssetCache() != null) {
+            ExtentReporter.setSystemInfo("Asset cache", PlaywrightManager.getAssetCache().describeMetrics());
+        }
+        if (PlaywrightManager.getResourceSampler() != null) {
+            ExtentReporter.setSystemInfo("Browser resources", PlaywrightManager.getResourceSampler().describeMetrics());
+        }
+        FailureArtifacts failureArtifacts = PlaywrightManager.getFailureArtifacts();
+        PlaywrightManager.closeBrowserPool();
+        if (failureArtifacts != null) {
+            // After the pool is closed, so the artifacts still being written are counted
+            ExtentReporter.setSystemInfo("Failure artifacts", failureArtifacts.describeMetrics());
+        }
+        PhaseTimings.getSuiteSummary().forEach((phase, summary) ->
+                ExtentReporter.setSystemInfo("Phase " + phase, summary.describe()));
+        PhaseTimings.export();
+        if (TraceWriter.get() != null) {
+            ExtentReporter.setSystemInfo("Trace timeline", TraceWriter.get().describeMetrics());
+        }
+        if (FailFastListener.describeMetrics() != null) {
+            ExtentReporter.setSystemInfo("Fail fast", FailFastListener.describeMetrics());
+        }
+        ExtentReporter.complete();
+    }
 
-        // Close the Playwright instance to free up resources
-        playwrightManager.getPlaywright().close();
+    /**
+     * Gets the engine of the current TestNG test, from its `browser` parameter or else the configured `browser`.
+     *
+     * @param context the TestNG context
+     * @return the browser engine
+     */
+    private String getEngine(ITestContext context) {
+        String engine = context.getCurrentXmlTest().getParameter("browser");
+        return engine != null ? engine : properties.getProperty("browser");
+    }
 
-        ExtentReporter.extent.flush();
+    /**
+     * Works out how many tests of the current TestNG test can run at the same time, based on its parallel settings.
+     * The TestNG tests of a suite that runs them in parallel (one per engine) each run their methods one at a time,
+     * unless they set their own parallel mode. The data provider threads only count when the test has a parallel
+     * data provider, as TestNG defaults their number to 10 whether or not they are used.
+     *
+     * @param context the TestNG context
+     * @return the number of concurrent test threads
+     */
+    private int getWorkerCount(ITestContext context) {
+        XmlTest test = context.getCurrentXmlTest();
+        XmlSuite.ParallelMode parallel = test.getParallel();
+        if (parallel == null || parallel == XmlSuite.ParallelMode.NONE || parallel == XmlSuite.ParallelMode.TESTS) {
+            return 1;
+        }
+        boolean parallelDataProviders = Arrays.stream(context.getAllTestMethods())
+                .anyMatch(BaseUITests::hasParallelDataProvider);
+        return parallelDataProviders
+                ? Math.max(test.getThreadCount(), test.getSuite().getDataProviderThreadCount())
+                : test.getThreadCount();
+    }
 
+    // TestNG only resolves a method's data provider when it runs it, so it is looked up from the annotations
+    private static boolean hasParallelDataProvider(ITestNGMethod method) {
+        Test annotation = method.getConstructorOrMethod().getMethod().getAnnotation(Test.class);
+        if (annotation == null || annotation.dataProvider().isEmpty()) {
+            return false;
+        }
+        Class<?> providerClass = annotation.dataProviderClass() == Object.class
+                ? method.getRealClass() : annotation.dataProviderClass();
+        for (Class<?> type = providerClass; type != null; type = type.getSuperclass()) {
+            for (Method provider : type.getDeclaredMethods()) {
+                DataProvider dataProvider = provider.getAnnotation(DataProvider.class);
+                if (dataProvider != null && annotation.dataProvider().equals(
+                        dataProvider.name().isEmpty() ? provider.getName() : dataProvider.name())) {
+                    return dataProvider.parallel();
+                }
+            }
+        }
+        return false;
     }
 }
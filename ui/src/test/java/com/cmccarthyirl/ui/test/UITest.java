@@ -12,7 +12,6 @@ import static org.testng.Assert.assertTrue;
 
 public class UITest extends BaseUITests {
 
-    private SearchPage searchPage;
     private static final LogManager log = new LogManager(UITest.class);
 
     /**
@@ -22,21 +21,22 @@ public class UITest extends BaseUITests {
      */
     @Test
     public void searchForExactTitle() {
-        // Initialize the SearchPage object with the driver manager
-        searchPage = new SearchPage(getPlaywrightManager());
+        // Initialize the SearchPage object with the driver manager. It is local, as the methods run in parallel on
+        // one instance of the class and its locators are bound to this thread's page
+        SearchPage searchPage = new SearchPage(getPlaywrightManager());
 
         // Define the title we are searching for
         String title = "Agile Testing";
 
         // Navigate to the automation bookstore's homepage
-        searchPage.getPage().navigate("https://automationbookstore.dev/");
+        searchPage.navigate("https://automationbookstore.dev/");
         log.info("The user navigated to: https://automationbookstore.dev/");
         // Perform the search for the book title
         searchPage.search(title);
-        log.info("The search results contained: " + searchPage.getNumberOfVisibleBooks() + " book");
+        log.info(() -> "The search results contained: " + searchPage.getNumberOfVisibleBooks() + " book");
         // Validate that exactly 1 book is visible in the search results
         assertEquals(searchPage.getNumberOfVisibleBooks(), 1, "Number of visible books");
-        log.info("The book's title is: " + searchPage.getVisibleBooks().toString());
+        log.info(() -> "The book's title is: " + searchPage.getVisibleBooks());
         // Validate that the visible book's title matches the searched title
         assertTrue(searchPage.getVisibleBooks().contains(title), "Title of visible book");
     }
@@ -48,11 +48,12 @@ public class UITest extends BaseUITests {
      */
     @Test
     public void searchForPartialTitle() {
-        // Initialize the SearchPage object with the driver manager
-        searchPage = new SearchPage(getPlaywrightManager());
+        // Initialize the SearchPage object with the driver manager. It is local, as the methods run in parallel on
+        // one instance of the class and its locators are bound to this thread's page
+        SearchPage searchPage = new SearchPage(getPlaywrightManager());
 
         // Navigate to the automation bookstore's homepage
-        searchPage.getPage().navigate("https://automationbookstore.dev/");
+        searchPage.navigate("https://automationbookstore.dev/");
         log.info(" The user navigated to: https://automationbookstore.dev/");
         // Perform the search for the partial title "Test"
         searchPage.search("Test");
@@ -66,7 +67,7 @@ public class UITest extends BaseUITests {
                 "Java For Testers"
         );
 
-        log.info("Verify the expected books were returned: " + expectedBooks);
+        log.info("Verify the expected books were returned: {}", expectedBooks);
         // Validate that the number of visible books matches the expected number
         assertEquals(searchPage.getNumberOfVisibleBooks(), expectedBooks.size(), "Number of visible books");
 
@@ -0,0 +1,419 @@
+package com.cmccarthyirl.ui.utils;
+
+import com.cmccarthyirl.common.LogManager;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.microsoft.playwright.APIResponse;
+import com.microsoft.playwright.BrowserContext;
+import com.microsoft.playwright.PlaywrightException;
+import com.microsoft.playwright.Request;
+import com.microsoft.playwright.Route;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * On-disk cache of static assets (scripts, stylesheets, images, fonts) shared by every browser context.
+ * A GET for a cached, still fresh URL is fulfilled from disk instead of the network. Bodies are stored once
+ * per SHA-256 of their content and read back memory-mapped. Freshness follows the response's Cache-Control
+ * (`max-age`, `immutable`, `no-store`, `private`, `no-cache`) or Expires header, and responses without
+ * either are not cached. The least recently used entries are evicted to stay within the size budget.
+ * The index is saved on {@link #close()}, so later runs start warm.
+ * <p>
+ * Several JVMs can share the directory, e.g. surefire forks, the UI and API modules or shards on one machine. Each
+ * holds a shared lock on `cache.lock` while it uses the cache, and merges its entries into the index on disk under
+ * `index.lock` when it closes. Blobs are only deleted by a JVM that opens the cache while no other JVM uses it:
+ * until then an evicted entry's blob stays on disk, as another JVM may still serve it.
+ */
+public class AssetCache {
+
+    private static final LogManager log = new LogManager(AssetCache.class);
+
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+    private static final long IMMUTABLE_SECONDS = TimeUnit.DAYS.toSeconds(365);
+    // Playwright has already decoded and sized the body, so these no longer describe it
+    private static final Set<String> DROPPED_HEADERS = Set.of("content-encoding", "content-length", "transfer-encoding");
+
+    private final Gson gson = new Gson();
+    private final Path directory;
+    private final Path blobs;
+    private final long maxBytes;
+    private final Set<String> resourceTypes;
+
+    // URL to entry in least recently used order, guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Number of URLs sharing each blob, guarded by this
+    private final Map<String, Integer> blobReferences = new HashMap<>();
+    private long totalBytes;
+    // Held, shared, while the cache is open, so a JVM can tell whether it is the only one using the directory
+    private FileChannel usageChannel;
+    private FileLock usageLock;
+    // Whether blobs may be deleted, only while opening the cache with no other JVM using it
+    private boolean ownsDirectory;
+
+    // Counters
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bytesServed = new LongAdder();
+    private final LongAdder missNanos = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Opens the cache, loading the index left by a previous run.
+     *
+     * @param directory     the directory of the cache
+     * @param maxBytes      the size budget of the cached bodies
+     * @param resourceTypes the resource types that are cached
+     */
+    public AssetCache(Path directory, long maxBytes, Set<String> resourceTypes) {
+        this.directory = directory;
+        this.blobs = directory.resolve("blobs");
+        this.maxBytes = maxBytes;
+        this.resourceTypes = resourceTypes;
+        try {
+            Files.createDirectories(blobs);
+            usageChannel = FileChannel.open(directory.resolve("cache.lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // An exclusive lock means no other JVM has the cache open, so unreferenced blobs can be deleted
+            FileLock exclusive = usageChannel.tryLock();
+            ownsDirectory = exclusive != null;
+            try {
+                load();
+            } finally {
+                ownsDirectory = false;
+                if (exclusive != null) {
+                    exclusive.release();
+                }
+            }
+            usageLock = usageChannel.lock(0, Long.MAX_VALUE, true);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Creates the cache from the `assetCache` (true to enable it), `assetCacheDir`, `assetCacheMaxMb`
+     * and `assetCacheTypes` properties.
+     *
+     * @param properties the configuration properties
+     * @return the cache, or null when it is not enabled
+     */
+    public static AssetCache fromProperties(Properties properties) {
+        if (!Boolean.parseBoolean(properties.getProperty("assetCache", "false"))) {
+            return null;
+        }
+        long maxBytes = Long.parseLong(properties.getProperty("assetCacheMaxMb", "256")) * 1024 * 1024;
+        Set<String> types = Arrays.stream(properties.getProperty("assetCacheTypes", "script,stylesheet,image,font").split(","))
+                .map(String::trim)
+                .filter(type -> !type.isEmpty())
+                .collect(Collectors.toSet());
+        return new AssetCache(Paths.get(properties.getProperty("assetCacheDir", "target/asset-cache")), maxBytes, types);
+    }
+
+    /**
+     * Routes the requests of a context through the cache. Install it before any other route handler
+     * (e.g. the {@link RoutePolicy}), so that it runs last and only sees the requests the others let through.
+     *
+     * @param context the browser context
+     */
+    public void install(BrowserContext context) {
+        context.route("**/*", this::handle);
+    }
+
+    /**
+     * Saves the index, so a later run can reuse the cached assets. The entries other JVMs saved in the meantime are
+     * kept, unless this cache has a newer entry for the same URL.
+     */
+    public synchronized void close() {
+        Path index = directory.resolve("index.json");
+        try (FileChannel indexChannel = FileChannel.open(directory.resolve("index.lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock indexLock = indexChannel.lock();
+            try {
+                saveIndex(index);
+            } finally {
+                indexLock.release();
+            }
+        } catch (IOException ex) {
+            log.warn("Failed to save the asset cache index: {}", ex.getMessage());
+        } finally {
+            try {
+                if (usageLock != null) {
+                    usageLock.release();
+                }
+                usageChannel.close();
+            } catch (IOException ex) {
+                log.warn("Failed to release the asset cache lock: {}", ex.getMessage());
+            }
+        }
+        log.info("Asset cache closed: {}", describeMetrics());
+    }
+
+    // Merges the index on disk with the entries of this cache and replaces it, while holding the index lock
+    private void saveIndex(Path index) throws IOException {
+        Map<String, Entry> merged = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        for (Entry entry : readIndex(index)) {
+            if (entry.expiresAt > now && Files.exists(blobs.resolve(entry.sha))) {
+                merged.put(entry.url, entry);
+            }
+        }
+        entries.values().forEach(entry -> merged.put(entry.url, entry));
+        Path temp = Files.createTempFile(directory, "index", ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            gson.toJson(new ArrayList<>(merged.values()), writer);
+        }
+        Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Summarises the cache counters in a single line. The time saved is estimated from the average time of a miss.
+     *
+     * @return the cache counters
+     */
+    public String describeMetrics() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        long requests = hitCount + missCount;
+        long averageMissMs = missCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(missNanos.sum() / missCount);
+        synchronized (this) {
+            return "hits=" + hitCount + ", misses=" + missCount
+                    + ", hitRatio=" + (requests == 0 ? 0 : Math.round(hitCount * 100.0 / requests)) + "%"
+                    + ", bytesServed=" + bytesServed.sum() + ", estimatedSavedMs=" + hitCount * averageMissMs
+                    + ", entries=" + entries.size() + ", bytes=" + totalBytes + ", evictions=" + evictions.sum();
+        }
+    }
+
+    private void handle(Route route) {
+        Request request = route.request();
+        if (!"GET".equals(request.method()) || !resourceTypes.contains(request.resourceType())) {
+            route.fallback();
+            return;
+        }
+        Entry entry = lookup(request.url());
+        if (entry != null) {
+            byte[] body = read(entry.sha);
+            if (body != null) {
+                hits.increment();
+                bytesServed.add(body.length);
+                route.fulfill(new Route.FulfillOptions().setStatus(entry.status).setHeaders(entry.headers).setBodyBytes(body));
+                return;
+            }
+        }
+
+        long start = System.nanoTime();
+        APIResponse response;
+        try {
+            response = route.fetch();
+        } catch (PlaywrightException ex) {
+            // Let the browser see the network error as it would without the cache
+            route.fallback();
+            return;
+        }
+        misses.increment();
+        missNanos.add(System.nanoTime() - start);
+        long maxAge = response.status() == 200 ? freshnessSeconds(response.headers()) : 0;
+        if (maxAge > 0) {
+            store(request.url(), response, maxAge);
+        }
+        route.fulfill(new Route.FulfillOptions().setResponse(response));
+    }
+
+    // How long the response may be served from the cache, 0 if it must not be cached
+    private static long freshnessSeconds(Map<String, String> headers) {
+        String cacheControl = headers.getOrDefault("cache-control", "").toLowerCase(Locale.ROOT);
+        if (cacheControl.contains("no-store") || cacheControl.contains("no-cache") || cacheControl.contains("private")) {
+            return 0;
+        }
+        if (cacheControl.contains("immutable")) {
+            return IMMUTABLE_SECONDS;
+        }
+        Matcher maxAge = MAX_AGE.matcher(cacheControl);
+        if (maxAge.find()) {
+            return Long.parseLong(maxAge.group(1));
+        }
+        String expires = headers.get("expires");
+        if (expires != null) {
+            try {
+                long expiresAt = ZonedDateTime.parse(expires, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+                return Math.max(0, expiresAt - TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+            } catch (DateTimeParseException ex) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    private synchronized Entry lookup(String url) {
+        Entry entry = entries.get(url);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt < System.currentTimeMillis()) {
+            remove(url);
+            return null;
+        }
+        return entry;
+    }
+
+    private void store(String url, APIResponse response, long maxAgeSeconds) {
+        byte[] body = response.body();
+        String sha = sha256(body);
+        Path blob = blobs.resolve(sha);
+        try {
+            // The same content is only written once, whichever URL it came from
+            if (!Files.exists(blob)) {
+                Path temp = Files.createTempFile(blobs, sha, ".tmp");
+                Files.write(temp, body);
+                Files.move(temp, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException ex) {
+            log.warn("Failed to cache {}: {}", url, ex.getMessage());
+            return;
+        }
+        Map<String, String> headers = new HashMap<>();
+        response.headers().forEach((name, value) -> {
+            if (!DROPPED_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+                headers.put(name, value);
+            }
+        });
+        add(url, new Entry(url, sha, response.status(), headers, body.length,
+                System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(maxAgeSeconds)));
+    }
+
+    private synchronized void add(String url, Entry entry) {
+        if (entries.containsKey(url)) {
+            remove(url);
+        }
+        entries.put(url, entry);
+        if (blobReferences.merge(entry.sha, 1, Integer::sum) == 1) {
+            totalBytes += entry.size;
+        }
+        // Evict the least recently used entries until the cache is within its budget again
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Entry evicted = eldest.next().getValue();
+            if (evicted == entry) {
+                continue;
+            }
+            eldest.remove();
+            release(evicted);
+            evictions.increment();
+        }
+    }
+
+    private void remove(String url) {
+        Entry removed = entries.remove(url);
+        if (removed != null) {
+            release(removed);
+        }
+    }
+
+    // Deletes the blob once no URL refers to it any more, if no other JVM may be serving it
+    private void release(Entry entry) {
+        int references = blobReferences.merge(entry.sha, -1, Integer::sum);
+        if (references > 0) {
+            return;
+        }
+        blobReferences.remove(entry.sha);
+        totalBytes -= entry.size;
+        if (!ownsDirectory) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(blobs.resolve(entry.sha));
+        } catch (IOException ex) {
+            log.warn("Failed to delete the cached asset {}: {}", entry.sha, ex.getMessage());
+        }
+    }
+
+    private byte[] read(String sha) {
+        try (FileChannel channel = FileChannel.open(blobs.resolve(sha), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] body = new byte[mapped.remaining()];
+            mapped.get(body);
+            return body;
+        } catch (IOException ex) {
+            // Evicted by another worker in the meantime, so it is fetched again
+            return null;
+        }
+    }
+
+    private synchronized void load() {
+        long now = System.currentTimeMillis();
+        for (Entry entry : readIndex(directory.resolve("index.json"))) {
+            if (entry.expiresAt > now && Files.exists(blobs.resolve(entry.sha))) {
+                add(entry.url, entry);
+            }
+        }
+        if (!ownsDirectory) {
+            // Another JVM is using the cache, and may be serving blobs this index does not know yet
+            return;
+        }
+        // Blobs of entries that expired, were evicted or were never indexed (e.g. a killed run) only take up space
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(blobs)) {
+            for (Path file : files) {
+                if (!blobReferences.containsKey(file.getFileName().toString())) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException ex) {
+            log.warn("Failed to clean up the asset cache: {}", ex.getMessage());
+        }
+    }
+
+    private List<Entry> readIndex(Path index) {
+        try (Reader reader = Files.exists(index) ? Files.newBufferedReader(index, StandardCharsets.UTF_8) : Reader.nullReader()) {
+            List<Entry> saved = gson.fromJson(reader, new TypeToken<List<Entry>>() { }.getType());
+            return saved == null ? List.of() : saved;
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Ignored an unreadable asset cache index: {}", ex.getMessage());
+            return List.of();
+        }
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    // A cached URL, saved as JSON in the index
+    private record Entry(String url, String sha, int status, Map<String, String> headers, long size, long expiresAt) {
+    }
+}
@@ -0,0 +1,463 @@
+package com.cmccarthyirl.ui.utils;
+
+import com.cmccarthyirl.common.LogManager;
+import com.cmccarthyirl.common.PhaseTimings;
+import com.cmccarthyirl.common.PlaywrightDriver;
+import com.microsoft.playwright.Browser;
+import com.microsoft.playwright.Playwright;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+public class BrowserPool {
+
+    private static final LogManager log = new LogManager(BrowserPool.class);
+
+    // Browsers that are launched and waiting to be leased by a test
+    private final BlockingQueue<PooledBrowser> idle = new LinkedBlockingQueue<>();
+    // Every browser owned by the pool, leased or idle, so they can all be closed on shutdown
+    private final Set<PooledBrowser> all = ConcurrentHashMap.newKeySet();
+    // Number of browser slots currently in use (launched or being launched)
+    private final AtomicInteger slots = new AtomicInteger();
+
+    private final BiFunction<Playwright, Properties, Browser> launcher;
+    private final Properties properties;
+    // Only grows, see growTo
+    private volatile int size;
+    private final int maxUses;
+    // Caps the browser processes of every pool in the JVM, or null when this pool is only capped by its size
+    private final BrowserScheduler scheduler;
+
+    // Pool metrics
+    private final LongAdder launches = new LongAdder();
+    private final LongAdder recycles = new LongAdder();
+    private final LongAdder leases = new LongAdder();
+    private final LongAdder preparedLeases = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a bounded pool of browsers.
+     *
+     * @param size       the maximum number of browsers the pool will keep alive at once
+     * @param maxUses    the number of leases after which a browser is closed and replaced
+     * @param properties properties passed to the launcher when a browser is created
+     * @param launcher   function that launches a browser on the given Playwright instance
+     */
+    public BrowserPool(int size, int maxUses, Properties properties, BiFunction<Playwright, Properties, Browser> launcher) {
+        this(size, maxUses, properties, launcher, null);
+    }
+
+    /**
+     * Creates a bounded pool of browsers that shares a cap on browser processes with the other pools of the scheduler.
+     *
+     * @param size       the maximum number of browsers the pool will keep alive at once
+     * @param maxUses    the number of leases after which a browser is closed and replaced
+     * @param properties properties passed to the launcher when a browser is created
+     * @param launcher   function that launches a browser on the given Playwright instance
+     * @param scheduler  the scheduler that caps the browser processes of every pool, or null
+     */
+    public BrowserPool(int size, int maxUses, Properties properties, BiFunction<Playwright, Properties, Browser> launcher,
+                       BrowserScheduler scheduler) {
+        this.size = Math.max(1, size);
+        this.maxUses = Math.max(1, maxUses);
+        this.properties = properties;
+        this.launcher = launcher;
+        this.scheduler = scheduler;
+        if (scheduler != null) {
+            scheduler.register(this);
+        }
+    }
+
+    /**
+     * Raises the size of the pool, e.g. when a later TestNG test runs more workers on the same engine.
+     * The extra browsers are launched when they are first leased. A pool never shrinks.
+     *
+     * @param size the new maximum number of browsers, ignored unless it is larger than the current one
+     */
+    public synchronized void growTo(int size) {
+        if (size > this.size) {
+            log.info("Growing a browser pool from {} to {} browser(s)", this.size, size);
+            this.size = size;
+        }
+    }
+
+    /**
+     * Launches every browser up front so the first tests do not pay the cold start.
+     * Browsers are launched in parallel, each on its own Playwright instance or on a shared driver.
+     */
+    public void warmUp() {
+        ExecutorService executor = Executors.newFixedThreadPool(size);
+        List<Future<PooledBrowser>> launched = new ArrayList<>();
+        try {
+            // Warming up never closes the browsers of another pool
+            while (reserveSlot(false)) {
+                launched.add(executor.submit(this::launch));
+            }
+            for (Future<PooledBrowser> future : launched) {
+                idle.offer(future.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while warming up the browser pool", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to warm up the browser pool", ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        log.info("Warmed up a browser pool of {} browser(s)", launched.size());
+    }
+
+    /**
+     * Leases a browser from the pool, launching a new one if the pool has not reached its size yet,
+     * otherwise blocking until another test releases one. An idle browser with a prepared session is preferred.
+     *
+     * @return a browser that is exclusively owned by the caller until it is released
+     */
+    public PooledBrowser acquire() {
+        if (closed) {
+            throw new IllegalStateException("The browser pool has been shut down");
+        }
+        long start = System.nanoTime();
+        try {
+            PooledBrowser pooled = takeIdle(true);
+            if (pooled == null) {
+                pooled = idle.poll();
+            }
+            while (pooled == null || pooled.disconnected) {
+                if (pooled != null) {
+                    // The browser lost its connection while idle, e.g. to a browser server that restarted
+                    recycle(pooled, true);
+                }
+                if (reserveSlot(true)) {
+                    pooled = launch();
+                } else {
+                    pooled = idle.poll(100, TimeUnit.MILLISECONDS);
+                }
+            }
+            leases.increment();
+            if (pooled.prepared != null) {
+                preparedLeases.increment();
+            }
+            return pooled;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a browser", ex);
+        } finally {
+            long waited = System.nanoTime() - start;
+            totalWaitNanos.add(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            PhaseTimings.record("browser.lease", waited);
+        }
+    }
+
+    /**
+     * Returns a browser to the pool. The browser is recycled instead when it crashed,
+     * disconnected or reached the maximum number of uses.
+     *
+     * @param pooled  the browser previously returned by {@link #acquire()}
+     * @param crashed whether the lease ended with the browser in an unusable state
+     */
+    public void release(PooledBrowser pooled, boolean crashed) {
+        pooled.uses++;
+        if (closed || crashed || !pooled.call(pooled.getBrowser()::isConnected) || pooled.uses >= maxUses) {
+            recycle(pooled, crashed);
+            return;
+        }
+        idle.offer(pooled);
+    }
+
+    /**
+     * Takes an idle browser that has no prepared session, launching one if the pool has a free slot,
+     * so a session can be prepared on it in the background. Never blocks and does not count as a lease.
+     *
+     * @return a browser that is exclusively owned by the caller until it is offered back, or null if there is none
+     */
+    public PooledBrowser acquireSpare() {
+        if (closed) {
+            return null;
+        }
+        PooledBrowser pooled = takeIdle(false);
+        if (pooled != null && pooled.disconnected) {
+            recycle(pooled, true);
+            pooled = null;
+        }
+        if (pooled == null && reserveSlot(false)) {
+            pooled = launch();
+        }
+        return pooled;
+    }
+
+    /**
+     * Returns a browser taken with {@link #acquireSpare()} to the pool, with the session prepared on it.
+     *
+     * @param pooled   the browser
+     * @param prepared the session prepared on the browser, or null
+     */
+    void offerPrepared(PooledBrowser pooled, PreparedSession prepared) {
+        pooled.prepared = prepared;
+        if (closed || !pooled.call(pooled.getBrowser()::isConnected)) {
+            recycle(pooled, false);
+            return;
+        }
+        idle.offer(pooled);
+    }
+
+    /**
+     * Recycles a browser taken with {@link #acquireSpare()} on which a session could not be prepared.
+     *
+     * @param pooled the browser
+     */
+    public void discard(PooledBrowser pooled) {
+        recycle(pooled, true);
+    }
+
+    /**
+     * Closes every browser and Playwright instance owned by the pool.
+     */
+    public void shutdown() {
+        closed = true;
+        all.forEach(pooled -> {
+            close(pooled);
+            releaseSlot();
+        });
+        all.clear();
+        idle.clear();
+        log.info("Browser pool shut down: {}", describeMetrics());
+    }
+
+    // Removes the first idle browser with (or without) a prepared session
+    private PooledBrowser takeIdle(boolean prepared) {
+        for (PooledBrowser pooled : idle) {
+            if ((pooled.prepared != null) == prepared && idle.remove(pooled)) {
+                return pooled;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Closes one of the idle browsers, preferring one without a prepared session, to make room for another pool.
+     *
+     * @return true if a browser was closed
+     */
+    boolean evictIdle() {
+        PooledBrowser pooled = takeIdle(false);
+        if (pooled == null) {
+            pooled = takeIdle(true);
+        }
+        if (pooled == null) {
+            return false;
+        }
+        recycle(pooled, false);
+        return true;
+    }
+
+    private boolean reserveSlot(boolean evict) {
+        int current;
+        do {
+            current = slots.get();
+            if (current >= size) {
+                return false;
+            }
+        } while (!slots.compareAndSet(current, current + 1));
+        if (scheduler != null && !scheduler.tryReserve(this, evict)) {
+            slots.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private void releaseSlot() {
+        slots.decrementAndGet();
+        if (scheduler != null) {
+            scheduler.release();
+        }
+    }
+
+    private PooledBrowser launch() {
+        Playwright playwright = null;
+        PlaywrightDriver driver = null;
+        long start = System.nanoTime();
+        try {
+            // With shared drivers the browser is launched on one of them, otherwise on a Playwright instance of its own
+            driver = PlaywrightDriver.next(properties);
+            playwright = driver == null ? Playwright.create() : driver.getPlaywright();
+            Playwright owner = playwright;
+            PooledBrowser pooled = driver == null
+                    ? new PooledBrowser(this, playwright, launcher.apply(playwright, properties), null)
+                    : new PooledBrowser(this, playwright, driver.call(() -> launcher.apply(owner, properties)), driver);
+            pooled.run(() -> pooled.getBrowser().onDisconnected(browser -> pooled.disconnected = true));
+            all.add(pooled);
+            launches.increment();
+            PhaseTimings.record("browser.launch", System.nanoTime() - start);
+            return pooled;
+        } catch (RuntimeException ex) {
+            // Give the slot back so another caller can retry the launch
+            releaseSlot();
+            if (playwright != null && driver == null) {
+                playwright.close();
+            }
+            throw ex;
+        }
+    }
+
+    private void recycle(PooledBrowser pooled, boolean crashed) {
+        recycles.increment();
+        all.remove(pooled);
+        close(pooled);
+        releaseSlot();
+        if (crashed || pooled.disconnected) {
+            log.warn("Recycled a crashed browser after {} use(s)", pooled.uses);
+        }
+    }
+
+    private void close(PooledBrowser pooled) {
+        try {
+            pooled.run(() -> {
+                if (pooled.getBrowser().isConnected()) {
+                    pooled.getBrowser().close();
+                }
+            });
+        } catch (RuntimeException ex) {
+            log.warn("Failed to close a pooled browser: {}", ex.getMessage());
+        } finally {
+            // A shared driver outlives its browsers and is closed after the pool
+            if (pooled.driver == null) {
+                pooled.getPlaywright().close();
+            }
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getLaunches() {
+        return launches.sum();
+    }
+
+    public long getRecycles() {
+        return recycles.sum();
+    }
+
+    public long getLeases() {
+        return leases.sum();
+    }
+
+    public long getPreparedLeases() {
+        return preparedLeases.sum();
+    }
+
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.sum());
+    }
+
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    /**
+     * Summarises the pool metrics in a single line, suitable for logs and the report's system info.
+     *
+     * @return the pool metrics
+     */
+    public String describeMetrics() {
+        long leaseCount = getLeases();
+        long averageWait = leaseCount == 0 ? 0 : getTotalWaitMillis() / leaseCount;
+        return "size=" + size + ", leases=" + leaseCount + ", preparedLeases=" + getPreparedLeases()
+                + ", launches=" + getLaunches() + ", recycles=" + getRecycles()
+                + ", avgWaitMs=" + averageWait + ", maxWaitMs=" + getMaxWaitMillis();
+    }
+
+    /**
+     * A browser owned by the pool together with the Playwright instance that launched it.
+     * Playwright is not thread-safe, so each pooled browser either keeps its own instance and is only
+     * ever used by the thread currently holding the lease, or is used through {@link #call(Supplier)}
+     * on the dispatcher thread of the shared driver that launched it.
+     */
+    public static class PooledBrowser {
+
+        private final BrowserPool pool;
+        private final Playwright playwright;
+        private final Browser browser;
+        private final PlaywrightDriver driver;
+        private int uses;
+        private volatile boolean disconnected;
+        // A context and page opened ahead of the next lease, see PlaywrightManager
+        private volatile PreparedSession prepared;
+
+        PooledBrowser(BrowserPool pool, Playwright playwright, Browser browser, PlaywrightDriver driver) {
+            this.pool = pool;
+            this.playwright = playwright;
+            this.browser = browser;
+            this.driver = driver;
+        }
+
+        /**
+         * Runs a call on the browser, its contexts or its pages. With a shared driver the call runs on
+         * the driver's dispatcher thread, otherwise on the calling thread.
+         *
+         * @param call the call
+         * @param <T>  the type of the result
+         * @return the result of the call
+         */
+        public <T> T call(Supplier<T> call) {
+            return driver == null ? call.get() : driver.call(call);
+        }
+
+        /**
+         * Runs a call on the browser, its contexts or its pages, see {@link #call(Supplier)}.
+         *
+         * @param call the call
+         */
+        public void run(Runnable call) {
+            if (driver == null) {
+                call.run();
+            } else {
+                driver.run(call);
+            }
+        }
+
+        public BrowserPool getPool() {
+            return pool;
+        }
+
+        public PlaywrightDriver getDriver() {
+            return driver;
+        }
+
+        public Playwright getPlaywright() {
+            return playwright;
+        }
+
+        public Browser getBrowser() {
+            return browser;
+        }
+
+        public int getUses() {
+            return uses;
+        }
+
+        /**
+         * Takes the session prepared on this browser ahead of the lease, if any.
+         *
+         * @return the prepared session, or null
+         */
+        PreparedSession takePrepared() {
+            PreparedSession session = prepared;
+            prepared = null;
+            return session;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.cmccarthyirl.ui.utils;
+
+import com.cmccarthyirl.common.LogManager;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps the number of browser processes of every browser pool in the JVM, e.g. the chromium, firefox and webkit
+ * pools of a matrix run, by the cores and memory of the machine. Each browser is budgeted `browserCores` cores and
+ * `browserMemoryMb` MB of the memory available when the run starts, unless `maxBrowsers` sets the cap directly.
+ * When the cap is reached, a pool that needs a browser closes an idle browser of another pool to make room.
+ */
+public class BrowserScheduler {
+
+    private static final LogManager log = new LogManager(BrowserScheduler.class);
+
+    private final int capacity;
+    private final Semaphore processes;
+    private final List<BrowserPool> pools = new CopyOnWriteArrayList<>();
+
+    // Counters
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+    private final LongAdder refusals = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a scheduler for a fixed number of browser processes.
+     *
+     * @param capacity the maximum number of browser processes
+     */
+    public BrowserScheduler(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.processes = new Semaphore(this.capacity, true);
+    }
+
+    /**
+     * Creates a scheduler sized to the cores and available memory of the machine, see the class comment.
+     *
+     * @param properties the configuration properties
+     * @return the scheduler
+     */
+    public static BrowserScheduler fromProperties(Properties properties) {
+        String maxBrowsers = properties.getProperty("maxBrowsers", "");
+        if (!maxBrowsers.isBlank()) {
+            return new BrowserScheduler(Integer.parseInt(maxBrowsers.trim()));
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        double coresPerBrowser = Double.parseDouble(properties.getProperty("browserCores", "1"));
+        long memoryPerBrowser = Long.parseLong(properties.getProperty("browserMemoryMb", "512"));
+        long availableMb = availableMemoryMb();
+        int byCores = (int) Math.floor(cores / coresPerBrowser);
+        int byMemory = (int) (availableMb / memoryPerBrowser);
+        BrowserScheduler scheduler = new BrowserScheduler(Math.min(byCores, byMemory));
+        log.info("Browser processes are capped at {} ({} cores, {} MB available)", scheduler.capacity, cores, availableMb);
+        return scheduler;
+    }
+
+    /**
+     * Registers a pool, so its idle browsers can be closed to make room for the other pools.
+     *
+     * @param pool the pool
+     */
+    void register(BrowserPool pool) {
+        pools.add(pool);
+    }
+
+    /**
+     * Reserves a browser process for a pool without blocking.
+     *
+     * @param requester the pool that launches the browser
+     * @param evict     whether an idle browser of another pool may be closed to make room
+     * @return true if the browser may be launched, in which case {@link #release()} must be called once it is closed
+     */
+    boolean tryReserve(BrowserPool requester, boolean evict) {
+        boolean reserved = processes.tryAcquire();
+        if (!reserved && evict) {
+            for (BrowserPool pool : pools) {
+                if (pool != requester && pool.evictIdle()) {
+                    evictions.increment();
+                    reserved = processes.tryAcquire();
+                    break;
+                }
+            }
+        }
+        if (!reserved) {
+            refusals.increment();
+            return false;
+        }
+        peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+        return true;
+    }
+
+    /**
+     * Gives back a browser process reserved with {@link #tryReserve(BrowserPool, boolean)}.
+     */
+    void release() {
+        running.decrementAndGet();
+        processes.release();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Summarises the scheduler counters in a single line.
+     *
+     * @return the scheduler counters
+     */
+    public String describeMetrics() {
+        return "capacity=" + capacity + ", peak=" + peak.get() + ", refusals=" + refusals.sum()
+                + ", evictions=" + evictions.sum();
+    }
+
+    // MemAvailable on Linux, otherwise the free physical memory reported by the JVM
+    private static long availableMemoryMb() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/meminfo"))) {
+                if (line.startsWith("MemAvailable:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) / 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            // Not Linux
+        }
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            return os.getFreeMemorySize() / (1024 * 1024);
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,168 @@
+package com.cmccarthyirl.ui.utils;
+
+import com.cmccarthyirl.common.LogManager;
+import com.cmccarthyirl.common.ReadPropertyFile;
+import com.google.gson.Gson;
+import com.microsoft.playwright.CLI;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts a long-lived browser server on localhost that the test JVMs connect to, instead of each run (and each
+ * surefire fork) launching its own browsers. The server listens on the `browserServer` websocket endpoint of the
+ * properties file and serves the configured `browser`, or the engine given on the command line, in which case the
+ * engine's own endpoint (e.g. `browserServer.firefox`) is preferred. It is restarted if it dies, and stopped with
+ * this process:
+ * <pre>
+ * java -cp ui/target/test-classes:common/target/classes:&lt;classpath&gt; com.cmccarthyirl.ui.utils.BrowserServer [config-dev.properties] [firefox]
+ * </pre>
+ */
+public class BrowserServer {
+
+    private static final LogManager log = new LogManager(BrowserServer.class);
+
+    private static final long HEALTH_CHECK_MILLIS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        String configFile = args.length > 0 ? args[0] : System.getProperty("config.file", "default-config.properties");
+        Properties properties = new ReadPropertyFile().loadProperties("./" + configFile);
+        if (args.length > 1) {
+            properties.setProperty("browser", args[1]);
+        }
+        String endpoint = getEndpoint(properties);
+        if (endpoint == null) {
+            log.error("Set browserServer in {}, e.g. browserServer:ws://127.0.0.1:3000/playwright", configFile);
+            System.exit(1);
+        }
+        URI uri = URI.create(endpoint);
+        Path options = writeServerOptions(uri, properties);
+
+        Process[] server = {start(options, properties)};
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> stop(server[0]), "browser-server-shutdown"));
+        // Health check: the server is restarted when its process dies or it stops accepting connections
+        while (true) {
+            TimeUnit.MILLISECONDS.sleep(HEALTH_CHECK_MILLIS);
+            if (!server[0].isAlive() || !isReachable(uri, 1000)) {
+                log.warn("The browser server on {} is down, restarting it", endpoint);
+                stop(server[0]);
+                server[0] = start(options, properties);
+            }
+        }
+    }
+
+    /**
+     * Gets the websocket endpoint of the browser server of the configured `browser`, from its own endpoint
+     * (e.g. `browserServer.firefox`), or else from `-DbrowserServer` or the properties file.
+     *
+     * @param properties the configuration properties
+     * @return the endpoint, or null when the browsers are launched by the test JVM
+     */
+    public static String getEndpoint(Properties properties) {
+        String engine = PlaywrightManager.engineName(properties.getProperty("browser"));
+        String endpoint = properties.getProperty("browserServer." + engine,
+                System.getProperty("browserServer", properties.getProperty("browserServer", "")));
+        return endpoint.isBlank() ? null : endpoint.trim();
+    }
+
+    /**
+     * Checks that something accepts connections on the host and port of the endpoint.
+     *
+     * @param endpoint  the websocket endpoint
+     * @param timeoutMs how long to wait for the connection
+     * @return true if the connection was accepted
+     */
+    public static boolean isReachable(URI endpoint, int timeoutMs) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(endpoint.getHost(), endpoint.getPort()), timeoutMs);
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    // The launchServer options of Playwright's launch-server command
+    private static Path writeServerOptions(URI uri, Properties properties) throws IOException {
+        Map<String, Object> options = new LinkedHashMap<>();
+        options.put("host", uri.getHost());
+        options.put("port", uri.getPort());
+        options.put("wsPath", uri.getPath().isEmpty() ? "/" : uri.getPath());
+        options.put("headless", !"false".equals(properties.getProperty("headless", "true")));
+        options.put("args", "chromium".equals(PlaywrightManager.engineName(properties.getProperty("browser")))
+                ? List.of("--disable-gpu", "--no-sandbox", "--disable-dev-shm-usage")
+                : List.of());
+        Path file = Files.createTempFile("browser-server", ".json");
+        file.toFile().deleteOnExit();
+        Files.writeString(file, new Gson().toJson(options));
+        return file;
+    }
+
+    // Runs Playwright's launch-server command through its public CLI entry point, with the Node driver that ships
+    // with Playwright Java, and waits until the server prints its endpoint
+    private static Process start(Path options, Properties properties) throws IOException {
+        String browserType = PlaywrightManager.engineName(properties.getProperty("browser"));
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                CLI.class.getName(), "launch-server", "--browser", browserType, "--config", options.toString());
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+        Process process = builder.start();
+        BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line = output.readLine();
+        if (line == null) {
+            throw new IOException("The browser server exited with code " + waitForExit(process));
+        }
+        log.info("Started a {} browser server on {}", browserType, line.trim());
+        drain(output, browserType);
+        return process;
+    }
+
+    // Keeps reading the server's output, so it never blocks on a full pipe
+    private static void drain(BufferedReader output, String browserType) {
+        Thread drainer = new Thread(() -> {
+            try (output) {
+                String line;
+                while ((line = output.readLine()) != null) {
+                    log.info("[{} browser server] {}", browserType, line);
+                }
+            } catch (IOException ex) {
+                // The server has exited
+            }
+        }, "browser-server-output");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    // The Node driver and its browser are children of the CLI process, which does not stop them itself
+    private static void stop(Process process) {
+        process.descendants().forEach(ProcessHandle::destroy);
+        process.destroy();
+        try {
+            process.waitFor(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int waitForExit(Process process) {
+        try {
+            return process.waitFor();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.cmccarthyirl.ui.utils;
+
+import com.aventstack.extentreports.ExtentTest;
+import com.aventstack.extentreports.Status;
+import com.cmccarthyirl.common.AttachmentStore;
+import com.cmccarthyirl.common.ExtentTests;
+import com.cmccarthyirl.common.LogManager;
+import com.microsoft.playwright.BrowserContext;
+import com.microsoft.playwright.Page;
+import com.microsoft.playwright.PlaywrightException;
+import com.microsoft.playwright.Tracing;
+import com.microsoft.playwright.options.ScreenshotType;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a Playwright trace, a screenshot and the DOM of the tests that fail, and nothing of those that pass.
+ * Every context is traced from the start of its test, with DOM snapshots but without screencast frames, so tracing
+ * stays light. A passing test's trace is dropped with its context, without being written anywhere. When a test
+ * fails, the trace is saved and the page's screenshot and HTML are taken before the context is closed; storing them
+ * in the report's {@link AttachmentStore} is left to a background thread, so the next test does not wait for the
+ * disk. The artifacts are linked from the failed test in the report, the screenshot by its thumbnail.
+ * <p>
+ * The artifacts of a run are capped at `failureArtifactsMaxMb`. Once the budget is spent, later failures keep their
+ * report entry but no artifacts, so a broken build cannot fill the disk. An artifact already in the store, e.g. the
+ * same screenshot of the same error page, does not count again.
+ */
+public class FailureArtifacts {
+
+    private static final LogManager log = new LogManager(FailureArtifacts.class);
+
+    private final AttachmentStore store;
+    private final long maxBytes;
+    // Bytes of the new files in the store
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "artifact-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Counters
+    private final LongAdder captured = new LongAdder();
+    private final LongAdder overBudget = new LongAdder();
+    private final LongAdder writeErrors = new LongAdder();
+
+    FailureArtifacts(AttachmentStore store, long maxBytes) {
+        this.store = store;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Creates the failure artifacts of the run when `failureArtifacts:true` (or `-DfailureArtifacts=true`).
+     *
+     * @param properties the configuration
+     * @return the failure artifacts, or null when they are not enabled
+     */
+    public static FailureArtifacts fromProperties(Properties properties) {
+        if (!Boolean.parseBoolean(System.getProperty("failureArtifacts", properties.getProperty("failureArtifacts", "false")))) {
+            return null;
+        }
+        long maxBytes = Long.parseLong(properties.getProperty("failureArtifactsMaxMb", "200")) * 1024 * 1024;
+        return new FailureArtifacts(AttachmentStore.get(), maxBytes);
+    }
+
+    /**
+     * Starts tracing a test's context. Call it on the thread that owns the context's browser.
+     *
+     * @param context the test's browser context
+     */
+    public void start(BrowserContext context) {
+        context.tracing().start(new Tracing.StartOptions()
+                .setSnapshots(true)
+                .setScreenshots(false)
+                .setSources(false));
+    }
+
+    /**
+     * Saves the trace of a failed test and takes the page's screenshot and HTML, before its context is closed.
+     * Call it on the thread that owns the context's browser. Whatever cannot be taken, e.g. from a crashed page,
+     * is left out.
+     *
+     * @param context the failed test's browser context
+     * @param page    the failed test's page
+     * @param testId  the test id, for the logs
+     * @return the artifacts, to hand to {@link #save(Capture)}
+     */
+    public Capture capture(BrowserContext context, Page page, String testId) {
+        Path trace = null;
+        try {
+            trace = store.createTempFile("zip");
+            context.tracing().stop(new Tracing.StopOptions().setPath(trace));
+        } catch (IOException | PlaywrightException ex) {
+            log.warn("Failed to save the trace of {}: {}", testId, ex.getMessage());
+            delete(trace);
+            trace = null;
+        }
+        byte[] screenshot = null;
+        String html = null;
+        if (page != null && !page.isClosed()) {
+            try {
+                screenshot = page.screenshot(new Page.ScreenshotOptions().setType(ScreenshotType.PNG));
+                html = page.content();
+            } catch (PlaywrightException ex) {
+                log.warn("Failed to take the screenshot and DOM of {}: {}", testId, ex.getMessage());
+            }
+        }
+        return new Capture(testId, ExtentTests.getTest(), trace, screenshot, html);
+    }
+
+    /**
+     * Stores the artifacts of a failed test in the background and links them from its test in the report.
+     *
+     * @param capture the artifacts of a failed test
+     */
+    public void save(Capture capture) {
+        if (capture.trace() == null && capture.screenshot() == null && capture.html() == null) {
+            return;
+        }
+        writer.execute(() -> write(capture));
+    }
+
+    /**
+     * Waits for the artifacts still being stored and stops the background thread.
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Gave up waiting for the failure artifacts to be stored");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Failure artifacts closed: {}", describeMetrics());
+    }
+
+    /**
+     * Summarises the artifact counters in a single line.
+     *
+     * @return the artifact counters
+     */
+    public String describeMetrics() {
+        return "captured=" + captured.sum() + ", overBudget=" + overBudget.sum() + ", writeErrors=" + writeErrors.sum()
+                + ", usedMb=" + usedBytes.get() / 1024 / 1024 + ", maxMb=" + maxBytes / 1024 / 1024;
+    }
+
+    // Runs on the writer thread
+    private void write(Capture capture) {
+        byte[] html = capture.html() == null ? null : capture.html().getBytes(StandardCharsets.UTF_8);
+        long bytes = size(capture.trace()) + (capture.screenshot() == null ? 0 : capture.screenshot().length)
+                + (html == null ? 0 : html.length);
+        // Reserved up front, and given back for whatever the store already had
+        if (usedBytes.addAndGet(bytes) > maxBytes) {
+            usedBytes.addAndGet(-bytes);
+            overBudget.increment();
+            delete(capture.trace());
+            log.warn("Dropped the failure artifacts of {}, the run has used its {} MB", capture.testId(),
+                    maxBytes / 1024 / 1024);
+            report(capture, "Failure artifacts dropped, the run has used its " + maxBytes / 1024 / 1024 + " MB");
+            return;
+        }
+        List<String> links = new ArrayList<>();
+        try {
+            if (capture.screenshot() != null) {
+                AttachmentStore.Attachment screenshot = stored(store.put(capture.screenshot(), "png"));
+                links.add("<a href='" + screenshot.path() + "' target='_blank'><img src='" + store.thumbnail(screenshot)
+                        + "' alt='screenshot'></a>");
+            }
+            if (capture.trace() != null) {
+                AttachmentStore.Attachment trace = stored(store.put(capture.trace(), "zip"));
+                links.add("<a href='" + trace.path() + "' target='_blank'>trace</a> (npx playwright show-trace)");
+            }
+            if (html != null) {
+                AttachmentStore.Attachment dom = stored(store.put(html, "html"));
+                links.add("<a href='" + dom.path() + "' target='_blank'>DOM</a>");
+            }
+            captured.increment();
+        } catch (UncheckedIOException ex) {
+            writeErrors.increment();
+            delete(capture.trace());
+            log.warn("Failed to store the failure artifacts of {}: {}", capture.testId(), ex.getMessage());
+        }
+        if (!links.isEmpty()) {
+            log.info("Stored the failure artifacts of {}", capture.testId());
+            report(capture, "Failure artifacts:<br>" + String.join("<br>", links));
+        }
+    }
+
+    // Gives back the budget of an attachment that was already in the store
+    private AttachmentStore.Attachment stored(AttachmentStore.Attachment attachment) {
+        if (!attachment.added()) {
+            usedBytes.addAndGet(-attachment.size());
+        }
+        return attachment;
+    }
+
+    // The test has moved on by now, so its node is the one taken when the artifacts were captured
+    private static void report(Capture capture, String details) {
+        if (capture.test() != null) {
+            ExtentTests.log(capture.test(), Status.INFO, details);
+        }
+    }
+
+    private static long size(Path file) {
+        try {
+            return file == null ? 0 : Files.size(file);
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    private void delete(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            log.warn("Failed to delete {}: {}", file, ex.getMessage());
+        }
+    }
+
+    /**
+     * The artifacts taken from a failed test, before they are stored.
+     *
+     * @param testId     the test id
+     * @param test       the test's node in the report, or null
+     * @param trace      the saved trace, in the store's temporary folder, or null
+     * @param screenshot the PNG screenshot, or null
+     * @param html       the page's HTML, or null
+     */
+    public record Capture(String testId, ExtentTest test, Path trace, byte[] screenshot, String html) {
+    }
+}
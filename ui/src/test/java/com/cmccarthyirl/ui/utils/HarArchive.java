@@ -0,0 +1,120 @@
+package com.cmccarthyirl.ui.utils;
+
+import com.cmccarthyirl.common.LogManager;
+import com.microsoft.playwright.BrowserContext;
+import com.microsoft.playwright.Route;
+import com.microsoft.playwright.options.HarMode;
+import com.microsoft.playwright.options.HarNotFound;
+import com.microsoft.playwright.options.RouteFromHarUpdateContentPolicy;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Records and replays the network traffic of the UI tests as HAR archives, so they can run without the live site.
+ * The mode is chosen with `-Dui.mode`:
+ * <ul>
+ *     <li>`live` (the default) - the tests use the network</li>
+ *     <li>`record` - each test's traffic is saved to `&lt;ui.harDir&gt;/&lt;test class&gt;/&lt;test method&gt;.zip`</li>
+ *     <li>`replay` - each test's traffic is served from its archive</li>
+ * </ul>
+ * The archives are zips with the bodies stored as separate entries, which the driver reads lazily as they are
+ * requested rather than loading the whole archive. With `-Dui.harStrict=true` a replayed request that is not in
+ * the archive is aborted and fails the test, otherwise it goes to the network.
+ */
+public class HarArchive {
+
+    public enum Mode {
+        LIVE, RECORD, REPLAY
+    }
+
+    private static final LogManager log = new LogManager(HarArchive.class);
+
+    private final Path archive;
+    private final Mode mode;
+    private final boolean strict;
+    // Replayed requests that were not in the archive
+    private final List<String> unmatched = Collections.synchronizedList(new ArrayList<>());
+
+    private HarArchive(Path archive, Mode mode, boolean strict) {
+        this.archive = archive;
+        this.mode = mode;
+        this.strict = strict;
+    }
+
+    public static Mode getMode() {
+        return Mode.valueOf(System.getProperty("ui.mode", "live").toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Records or replays the traffic of a test's context, depending on the mode.
+     * Install it after every other route handler, so that it runs first.
+     *
+     * @param context   the test's browser context
+     * @param className the test class, which names the archive's folder
+     * @param testName  the test method, which names the archive
+     * @return the archive of the test, or null in live mode
+     */
+    public static HarArchive install(BrowserContext context, String className, String testName) {
+        Mode mode = getMode();
+        if (mode == Mode.LIVE) {
+            return null;
+        }
+        Path archive = Paths.get(System.getProperty("ui.harDir", "src/test/resources/har"), className, testName + ".zip");
+        HarArchive har = new HarArchive(archive, mode, Boolean.parseBoolean(System.getProperty("ui.harStrict", "false")));
+        har.install(context);
+        return har;
+    }
+
+    /**
+     * Gets the replayed requests that were not in the archive.
+     *
+     * @return the URLs of the unmatched requests
+     */
+    public List<String> getUnmatched() {
+        synchronized (unmatched) {
+            return List.copyOf(unmatched);
+        }
+    }
+
+    public boolean isStrict() {
+        return strict;
+    }
+
+    private void install(BrowserContext context) {
+        if (mode == Mode.RECORD) {
+            // The archive is written when the context is closed
+            context.routeFromHAR(archive, new BrowserContext.RouteFromHAROptions()
+                    .setUpdate(true)
+                    .setUpdateContent(RouteFromHarUpdateContentPolicy.ATTACH)
+                    .setUpdateMode(HarMode.MINIMAL));
+            return;
+        }
+        if (!Files.exists(archive)) {
+            if (strict) {
+                throw new IllegalStateException("No HAR archive to replay at " + archive.toAbsolutePath());
+            }
+            log.warn("No HAR archive to replay at {}, the test uses the network", archive);
+            return;
+        }
+        // Requests missing from the archive fall back to this handler, which is registered first so it runs last
+        context.route("**/*", this::unmatched);
+        context.routeFromHAR(archive, new BrowserContext.RouteFromHAROptions().setNotFound(HarNotFound.FALLBACK));
+    }
+
+    private void unmatched(Route route) {
+        String request = route.request().method() + " " + route.request().url();
+        unmatched.add(request);
+        if (strict) {
+            log.warn("Aborted a request missing from {}: {}", archive, request);
+            route.abort();
+        } else {
+            route.fallback();
+        }
+    }
+}
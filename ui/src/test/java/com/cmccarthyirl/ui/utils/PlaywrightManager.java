@@ -1,49 +1,462 @@
 package com.cmccarthyirl.ui.utils;
 
 import com.cmccarthyirl.common.LogManager;
+import com.cmccarthyirl.common.PhaseTimings;
+import com.cmccarthyirl.common.PlaywrightDriver;
 import com.microsoft.playwright.*;
+import com.microsoft.playwright.options.ReducedMotion;
 
-import java.net.URL;
+import java.net.URI;
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 public class PlaywrightManager {
 
-    private Browser browser;
-    private static final ThreadLocal<Playwright> playwrightThreadLocal = new ThreadLocal<>();
-    private static final ThreadLocal<Browser> browserThreadLocal = new ThreadLocal<>();
+    // Browser pools shared by every test thread in the suite, one per engine (chromium, firefox, webkit)
+    private static final Map<String, BrowserPool> browserPools = new ConcurrentHashMap<>();
+    // Caps the browser processes of all the pools by the cores and memory of the machine
+    private static volatile BrowserScheduler scheduler;
+    // The engine of the `browser` property, used when a test does not name one
+    private static volatile String defaultEngine;
+    private static final ThreadLocal<BrowserPool.PooledBrowser> leaseThreadLocal = new ThreadLocal<>();
     private static final ThreadLocal<BrowserContext> contextThreadLocal = new ThreadLocal<>();
     private static final ThreadLocal<Page> pageThreadLocal = new ThreadLocal<>();
+    private static final ThreadLocal<RoutePolicy.Stats> routeStatsThreadLocal = new ThreadLocal<>();
+    private static final ThreadLocal<HarArchive> harThreadLocal = new ThreadLocal<>();
+    // The URL the current page was navigated to before the test started, until the test navigates itself
+    private static final ThreadLocal<String> prefetchedUrlThreadLocal = new ThreadLocal<>();
+    // The fast execution profile drops slowMo, reduces motion and blocks requests through the route policy
+    private static volatile boolean fastProfile;
+    private static volatile RoutePolicy routePolicy;
+    // Static assets shared by every context, when `assetCache:true`
+    private static volatile AssetCache assetCache;
+    // Traces every context and keeps the trace, screenshot and DOM of failed tests, when `failureArtifacts:true`
+    private static volatile FailureArtifacts failureArtifacts;
+    // Samples the memory and CPU of the driver and browser processes during each test, when `resourceSampler:true`
+    private static volatile ResourceSampler resourceSampler;
+    // Storage state (cookies, local storage) applied to every context, when `storageState` is configured
+    private static volatile String storageState;
+    // Prepares the next test's session on a spare browser while the current tests run, when `prefetch:true`
+    private static volatile ExecutorService prefetcher;
+    private static volatile String prefetchStartUrl;
+    private static final LongAdder prefetchHits = new LongAdder();
+    private static final LongAdder prefetchMisses = new LongAdder();
+    private static final LongAdder hiddenSetupNanos = new LongAdder();
+    // Browsers launched locally because the browser server could not be reached, when `browserServerFallback:true`
+    private static final LongAdder browserServerFallbacks = new LongAdder();
+
+    // Injected into every page of the fast profile, so tests never wait for an animation or transition
+    private static final String DISABLE_ANIMATIONS_SCRIPT = "document.addEventListener('DOMContentLoaded', () => {"
+            + " const style = document.createElement('style');"
+            + " style.textContent = '*, *::before, *::after { animation: none !important;"
+            + " transition: none !important; caret-color: transparent !important; }';"
+            + " document.head.appendChild(style);"
+            + "});";
     private static final LogManager log = new LogManager(PlaywrightManager.class);
 
     /**
-     * Initializes the browser if it's not already initialized.
-     * Uses the provided properties to set up the browser and its context.
+     * Initializes the shared browser pool of the configured `browser` if it's not already initialized,
+     * see {@link #createBrowser(Properties, int, String)}.
      *
      * @param properties Properties to configure the browser setup.
+     * @param workers    The number of threads that will run tests concurrently.
+     */
+    public void createBrowser(Properties properties, int workers) {
+        createBrowser(properties, workers, properties.getProperty("browser"));
+    }
+
+    /**
+     * Initializes the shared browser pool of an engine if it's not already initialized.
+     * The pool is sized to the number of workers unless `browserPoolSize` is configured, and grows when a later
+     * TestNG test runs more workers on the same engine. Each browser is recycled after `browserMaxUses` tests. The browser processes of every engine's pool
+     * are capped together by a {@link BrowserScheduler}.
+     * `executionProfile:fast` (or `-DexecutionProfile=fast`) selects the fast execution profile.
+     * With `prefetch:true` the pool gets one spare browser, on which the next test's context and page are
+     * prepared in the background (and navigated to `prefetchStartUrl`, when it is configured).
+     * With `playwrightDrivers` set, the browsers share that many Playwright driver processes, see {@link PlaywrightDriver}.
+     * With `browserServer` set, the browsers are connected to from a {@link BrowserServer} instead of launched.
+     *
+     * @param properties Properties to configure the browser setup.
+     * @param workers    The number of threads that will run tests concurrently on this engine.
+     * @param engine     The browser engine (chromium, chrome, firefox or webkit).
+     */
+    public void createBrowser(Properties properties, int workers, String engine) {
+        configure(properties);
+        String name = engineName(engine);
+        int size = Integer.parseInt(properties.getProperty("browserPoolSize",
+                String.valueOf(prefetcher != null ? workers + 1 : workers)));
+        // Only the thread that creates the pool registers it with the scheduler and warms it up
+        AtomicBoolean created = new AtomicBoolean();
+        BrowserPool pool = browserPools.computeIfAbsent(name, key -> {
+            created.set(true);
+            return newPool(properties, key, size);
+        });
+        if (!created.get()) {
+            pool.growTo(size);
+            return;
+        }
+        pool.warmUp();
+        if (prefetcher != null) {
+            prefetcher.execute(() -> prepareSpare(pool));
+        }
+    }
+
+    // Creates the pool of an engine, registering it with the scheduler
+    private BrowserPool newPool(Properties properties, String name, int size) {
+        Properties engineProperties = new Properties();
+        engineProperties.putAll(properties);
+        engineProperties.setProperty("browser", name);
+        int maxUses = Integer.parseInt(properties.getProperty("browserMaxUses", "25"));
+        String endpoint = BrowserServer.getEndpoint(engineProperties);
+        return new BrowserPool(size, maxUses, engineProperties, endpoint == null
+                ? this::setLocalWebDriver
+                : (playwright, props) -> setRemoteDriver(playwright, endpoint, props), scheduler);
+    }
+
+    // Reads the settings shared by every engine's pool, once per run
+    private static void configure(Properties properties) {
+        synchronized (PlaywrightManager.class) {
+            if (scheduler != null) {
+                return;
+            }
+            fastProfile = "fast".equalsIgnoreCase(System.getProperty("executionProfile",
+                    properties.getProperty("executionProfile", "standard")));
+            routePolicy = fastProfile ? RoutePolicy.fromProperties(properties) : null;
+            assetCache = AssetCache.fromProperties(properties);
+            failureArtifacts = FailureArtifacts.fromProperties(properties);
+            resourceSampler = ResourceSampler.fromProperties(properties);
+            storageState = properties.getProperty("storageState");
+            defaultEngine = engineName(properties.getProperty("browser"));
+            // HAR archives are per test, so a session cannot be prepared before its test is known
+            boolean prefetch = Boolean.parseBoolean(properties.getProperty("prefetch", "false"))
+                    && HarArchive.getMode() == HarArchive.Mode.LIVE;
+            prefetchStartUrl = properties.getProperty("prefetchStartUrl");
+            if (prefetch) {
+                prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "session-prefetch");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            scheduler = BrowserScheduler.fromProperties(properties);
+        }
+    }
+
+    /**
+     * Gets the Playwright engine of a browser name, e.g. chromium for chrome.
+     *
+     * @param browserName the browser name, as in the `browser` property
+     * @return the engine name
+     */
+    public static String engineName(String browserName) {
+        return switch (browserName) {
+            case ("chrome"), ("chromium") -> "chromium";
+            case ("firefox") -> "firefox";
+            case ("webkit") -> "webkit";
+            default -> throw new RuntimeException("Failed to create an instance of WebDriver for: " + browserName);
+        };
+    }
+
+    /**
+     * Leases a browser from an engine's pool and opens a fresh, isolated context and page on it for the current test.
+     * In HAR record or replay mode (`-Dui.mode`) the test's traffic is recorded to or served from its archive.
+     * With `failureArtifacts:true` the context is traced, see {@link #captureFailureArtifacts(String)}, and with
+     * `resourceSampler:true` the browser processes are sampled until the session is closed, see {@link ResourceSampler}.
+     *
+     * @param engine    the browser engine, or null for the configured `browser`
+     * @param className the test class
+     * @param testName  the test method
+     */
+    public void openSession(String engine, String className, String testName) {
+        String name = engine == null ? defaultEngine : engineName(engine);
+        BrowserPool pool = browserPools.get(name);
+        if (pool == null) {
+            throw new IllegalStateException("No browser pool was created for " + name);
+        }
+        BrowserPool.PooledBrowser pooled = pool.acquire();
+        PreparedSession session = pooled.takePrepared();
+        boolean prefetched = session != null;
+        if (!prefetched) {
+            try {
+                session = PhaseTimings.time("context.open", () -> pooled.call(() -> prepare(pooled.getBrowser(), null)));
+            } catch (PlaywrightException ex) {
+                pool.release(pooled, true);
+                throw ex;
+            }
+        }
+        // From here on closeSession() cleans up, even if the rest of the setup fails
+        leaseThreadLocal.set(pooled);
+        contextThreadLocal.set(session.context());
+        routeStatsThreadLocal.set(session.routeStats());
+        pageThreadLocal.set(session.page());
+        prefetchedUrlThreadLocal.set(session.startUrl());
+
+        if (prefetched) {
+            prefetchHits.increment();
+            hiddenSetupNanos.add(session.setupNanos());
+            log.info("Took a session prepared in the background, hiding {} ms of setup",
+                    TimeUnit.NANOSECONDS.toMillis(session.setupNanos()));
+        } else if (prefetcher != null) {
+            prefetchMisses.increment();
+        }
+        if (prefetcher != null) {
+            // Prepare the session of the next test while this one runs
+            prefetcher.execute(() -> prepareSpare(pool));
+        }
+
+        // The archive is routed last, so it answers before the policy and the cache
+        BrowserContext context = session.context();
+        FailureArtifacts artifacts = failureArtifacts;
+        if (artifacts != null) {
+            // A prepared context is traced from here, so the trace only covers this test
+            try {
+                pooled.run(() -> artifacts.start(context));
+            } catch (PlaywrightException ex) {
+                log.warn("Failed to start tracing the browser context: {}", ex.getMessage());
+            }
+        }
+        harThreadLocal.set(pooled.call(() -> HarArchive.install(context, className, testName)));
+        if (resourceSampler != null) {
+            resourceSampler.startTest();
+        }
+    }
+
+    /**
+     * Runs a call on the current test's browser, context or page. With shared drivers the call runs on
+     * the dispatcher thread of the browser's driver, so it must not use this class' thread-local getters.
+     *
+     * @param call the call
+     * @param <T>  the type of the result
+     * @return the result of the call
+     */
+    public <T> T call(Supplier<T> call) {
+        BrowserPool.PooledBrowser pooled = leaseThreadLocal.get();
+        return pooled == null ? call.get() : pooled.call(call);
+    }
+
+    /**
+     * Tells whether a navigation of the current test can be skipped, because the page was already navigated
+     * to the URL before the test started. Only the first navigation of a test can be skipped.
+     *
+     * @param url the URL the test navigates to
+     * @return true if the page is already on the URL
      */
-    public void createBrowser(Properties properties) {
-        if (getBrowser() == null) {
-            playwrightThreadLocal.set(Playwright.create());
-            setLocalWebDriver(properties);  // Setup local browser (chrome/firefox)
+    public boolean consumePrefetchedNavigation(String url) {
+        String prefetchedUrl = prefetchedUrlThreadLocal.get();
+        prefetchedUrlThreadLocal.remove();
+        return url.equals(prefetchedUrl) && url.equals(call(() -> getPage().url()));
+    }
+
+    /**
+     * Keeps the trace, screenshot and DOM of the current test, which failed, before its context is closed.
+     * The files are written in the background and linked from the test in the report, see {@link FailureArtifacts}.
+     * Does nothing when `failureArtifacts` is not enabled. A passing test's trace is dropped with its context.
+     *
+     * @param testId the test id, for the logs
+     */
+    public void captureFailureArtifacts(String testId) {
+        BrowserPool.PooledBrowser pooled = leaseThreadLocal.get();
+        FailureArtifacts artifacts = failureArtifacts;
+        if (pooled == null || artifacts == null) {
+            return;
         }
+        BrowserContext context = contextThreadLocal.get();
+        Page page = pageThreadLocal.get();
+        FailureArtifacts.Capture capture = PhaseTimings.time("artifacts.capture",
+                () -> pooled.call(() -> artifacts.capture(context, page, testId)));
+        artifacts.save(capture);
     }
 
     /**
-     * Sets up the local WebDriver (browser) based on the properties provided.
+     * Closes the current test's context and returns its browser to the pool.
+     * A browser that crashed or can no longer close its context is recycled.
+     */
+    public void closeSession() {
+        BrowserPool.PooledBrowser pooled = leaseThreadLocal.get();
+        if (pooled == null) {
+            return;
+        }
+        RoutePolicy.Stats routeStats = routeStatsThreadLocal.get();
+        if (routeStats != null) {
+            log.info("Route policy: {}", routeStats.describe());
+        }
+        if (resourceSampler != null) {
+            resourceSampler.finishTest();
+        }
+        boolean crashed = false;
+        BrowserContext context = contextThreadLocal.get();
+        try {
+            PhaseTimings.time("context.close", () -> pooled.run(context::close));
+        } catch (PlaywrightException ex) {
+            log.warn("Failed to close the browser context: {}", ex.getMessage());
+            crashed = true;
+        } finally {
+            pageThreadLocal.remove();
+            contextThreadLocal.remove();
+            routeStatsThreadLocal.remove();
+            harThreadLocal.remove();
+            prefetchedUrlThreadLocal.remove();
+            leaseThreadLocal.remove();
+            pooled.getPool().release(pooled, crashed);
+        }
+    }
+
+    /**
+     * Closes every pooled browser and logs the pool metrics. The asset cache index is saved for the next run,
+     * the failure artifacts still being written are waited for and the resource usage of the tests is written.
+     */
+    public static void closeBrowserPool() {
+        synchronized (PlaywrightManager.class) {
+            if (prefetcher != null) {
+                // Let a preparation in progress finish, its browser is closed with the pool
+                prefetcher.shutdown();
+                try {
+                    prefetcher.awaitTermination(30, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                prefetcher = null;
+            }
+            browserPools.values().forEach(BrowserPool::shutdown);
+            browserPools.clear();
+            scheduler = null;
+            PlaywrightDriver.closeAll();
+            if (assetCache != null) {
+                assetCache.close();
+                assetCache = null;
+            }
+            if (failureArtifacts != null) {
+                failureArtifacts.close();
+                failureArtifacts = null;
+            }
+            if (resourceSampler != null) {
+                resourceSampler.close();
+                resourceSampler = null;
+            }
+        }
+    }
+
+    // Opens a context and page with the storage state, routes and init script of the run
+    private static PreparedSession prepare(Browser browser, String startUrl) {
+        long start = System.nanoTime();
+        Browser.NewContextOptions options = new Browser.NewContextOptions();
+        if (fastProfile) {
+            options.setReducedMotion(ReducedMotion.REDUCE);
+        }
+        if (storageState != null && !storageState.isBlank()) {
+            options.setStorageStatePath(Paths.get(storageState));
+        }
+        // Create a browser context (isolated session)
+        BrowserContext context = browser.newContext(options);
+        try {
+            // The cache is routed first, so it only sees the requests the route policy lets through
+            if (assetCache != null) {
+                assetCache.install(context);
+            }
+            RoutePolicy.Stats routeStats = null;
+            if (fastProfile) {
+                context.addInitScript(DISABLE_ANIMATIONS_SCRIPT);
+                routeStats = routePolicy.install(context);
+            }
+            // Create a new page within the context
+            Page page = context.newPage();
+            if (startUrl != null) {
+                try {
+                    page.navigate(startUrl);
+                } catch (PlaywrightException ex) {
+                    // The test navigates itself, so the page is still usable
+                    log.warn("Failed to navigate the prepared page to {}: {}", startUrl, ex.getMessage());
+                    startUrl = null;
+                }
+            }
+            return new PreparedSession(context, page, routeStats, startUrl, System.nanoTime() - start);
+        } catch (RuntimeException ex) {
+            try {
+                context.close();
+            } catch (PlaywrightException closeEx) {
+                log.warn("Failed to close the browser context: {}", closeEx.getMessage());
+            }
+            throw ex;
+        }
+    }
+
+    // Runs on the prefetch thread, which owns the spare browser until it is offered back to the pool
+    private static void prepareSpare(BrowserPool pool) {
+        BrowserPool.PooledBrowser spare;
+        try {
+            spare = pool.acquireSpare();
+        } catch (RuntimeException ex) {
+            log.warn("Failed to launch a spare browser: {}", ex.getMessage());
+            return;
+        }
+        if (spare == null) {
+            return;
+        }
+        try {
+            PreparedSession session = spare.call(() -> prepare(spare.getBrowser(), prefetchStartUrl));
+            PhaseTimings.record("context.prefetch", session.setupNanos());
+            pool.offerPrepared(spare, session);
+        } catch (RuntimeException ex) {
+            log.warn("Failed to prepare the next session: {}", ex.getMessage());
+            pool.discard(spare);
+        }
+    }
+
+    /**
+     * Summarises how much session setup the prefetch stage took off the tests' critical path.
+     *
+     * @return the prefetch metrics, or null when prefetching is not enabled
+     */
+    public static String describePrefetchMetrics() {
+        long hits = prefetchHits.sum();
+        if (hits == 0 && prefetchMisses.sum() == 0) {
+            return null;
+        }
+        long hiddenMillis = TimeUnit.NANOSECONDS.toMillis(hiddenSetupNanos.sum());
+        return "prepared=" + hits + ", notReady=" + prefetchMisses.sum() + ", hiddenMs=" + hiddenMillis
+                + ", avgHiddenMs=" + (hits == 0 ? 0 : hiddenMillis / hits);
+    }
+
+    /**
+     * Summarises how often a local browser was launched because the browser server could not be reached.
+     *
+     * @return the browser server metrics, or null when every browser connected to the server (or there is none)
+     */
+    public static String describeBrowserServerMetrics() {
+        long fallbacks = browserServerFallbacks.sum();
+        return fallbacks == 0 ? null : "localFallbacks=" + fallbacks;
+    }
+
+    /**
+     * Launches a local browser based on the properties provided.
      * It supports different browsers like Chrome and Firefox.
      * Sets the browser in headless mode or non-headless as per the properties.
      *
+     * @param playwright Playwright instance that will own the browser.
      * @param properties Properties to configure the browser setup.
+     * @return the launched browser.
      */
-    public void setLocalWebDriver(Properties properties) {
+    public Browser setLocalWebDriver(Playwright playwright, Properties properties) {
         String binary = properties.getProperty("binary");
         String browserName = properties.getProperty("browser");
         String headless = properties.getProperty("headless");
+        Browser browser;
+
+        // Interactions are slowed down by 50 ms, except in the fast execution profile
+        double slowMo = fastProfile ? 0 : 50;
 
         // Choose browser based on the configuration in properties
         switch (browserName) {
-            case ("chrome") -> {
+            case ("chrome"), ("chromium") -> {
                 List<String> chromeOptions = List.of(
                         "--start-maximized",
                         "--disable-gpu",
@@ -54,13 +467,13 @@ public class PlaywrightManager {
 
                 if (headless.equals("true")) {
                     // Launch the Chrome browser with options like headless, max resolution, etc.
-                    browser = playwrightThreadLocal.get().chromium().launch(new BrowserType.LaunchOptions().setHeadless(true)
-                            .setSlowMo(50)  // Slow down interactions by 50 ms
+                    browser = playwright.chromium().launch(new BrowserType.LaunchOptions().setHeadless(true)
+                            .setSlowMo(slowMo)
                             .setArgs(chromeOptions));
                 } else {
                     // Launch the Chrome browser with options like headless, max resolution, etc.
-                    browser = playwrightThreadLocal.get().chromium().launch(new BrowserType.LaunchOptions().setHeadless(false)
-                            .setSlowMo(50)  // Slow down interactions by 50 ms
+                    browser = playwright.chromium().launch(new BrowserType.LaunchOptions().setHeadless(false)
+                            .setSlowMo(slowMo)
                             .setArgs(chromeOptions));
                 }
 
@@ -68,69 +481,139 @@ public class PlaywrightManager {
             }
             case ("firefox") -> {
                 // Launch the Firefox browser
-                browser = playwrightThreadLocal.get()
+                browser = playwright
                         .firefox()
-                        .launch(new BrowserType.LaunchOptions().setHeadless(false));
+                        .launch(new BrowserType.LaunchOptions().setHeadless(headless.equals("true"))
+                                .setSlowMo(slowMo));
+            }
+            case ("webkit") -> {
+                // Launch the WebKit browser
+                browser = playwright
+                        .webkit()
+                        .launch(new BrowserType.LaunchOptions().setHeadless(headless.equals("true"))
+                                .setSlowMo(slowMo));
             }
             default -> throw new RuntimeException("Failed to create an instance of WebDriver for: " + browserName);
         }
-        log.info("Created a browser for: " + browserName);
-        // Create a browser context (isolated session)
-        BrowserContext context = browser.newContext();
-        // Create a new page within the context
-        Page page = context.newPage();
-
-        // Set the page, context, and browser in ThreadLocal storage
-        pageThreadLocal.set(page);
-        contextThreadLocal.set(context);
-        browserThreadLocal.set(browser);
+        log.info("Created a browser for: {}", browserName);
+        return browser;
     }
 
     /**
-     * Sets up the remote WebDriver (browser) for remote execution using a hub URL.
-     * This is useful for running tests on remote grid setups.
+     * Connects to the long-lived browser server started by {@link BrowserServer}, so the test JVM
+     * (and every other fork or run) skips the browser cold start. The server is health checked before
+     * each connection, which is retried with a back-off while the server is (re)starting, up to
+     * `browserServerRetries` times. A browser that loses its connection is recycled by the pool and connected again.
+     * When the server cannot be reached at all, the connection fails, unless `browserServerFallback:true`
+     * allows a local browser to be launched instead, which is counted in the report.
      *
-     * @param hubUrl     URL of the remote Selenium or Playwright hub
+     * @param playwright Playwright instance that will own the connection.
+     * @param endpoint   the websocket endpoint of the browser server, e.g. ws://127.0.0.1:3000/playwright
      * @param properties Properties to configure the browser setup.
+     * @return the connected browser.
      */
-    private void setRemoteDriver(URL hubUrl, Properties properties) {
-        String binary = properties.getProperty("binary");
+    public Browser setRemoteDriver(Playwright playwright, String endpoint, Properties properties) {
         String browserName = properties.getProperty("browser");
-        String headless = properties.getProperty("headless");
-
-        // Launch remote browsers based on the configuration in properties
-        switch (browserName) {
-            case ("chrome") -> {
-                browser = playwrightThreadLocal.get()
-                        .chromium()
-                        .launch(new BrowserType.LaunchOptions().setHeadless(false));
+        BrowserType browserType = switch (browserName) {
+            case ("chrome"), ("chromium") -> playwright.chromium();
+            case ("firefox") -> playwright.firefox();
+            case ("webkit") -> playwright.webkit();
+            default -> throw new RuntimeException("Failed to create an instance of RemoteWebDriver for: " + browserName);
+        };
+        int attempts = Integer.parseInt(properties.getProperty("browserServerRetries", "5"));
+        URI uri = URI.create(endpoint);
+        for (int attempt = 1; attempt <= attempts; attempt++) {
+            if (BrowserServer.isReachable(uri, 1000)) {
+                try {
+                    Browser browser = browserType.connect(endpoint, new BrowserType.ConnectOptions()
+                            .setSlowMo(fastProfile ? 0 : 50)
+                            .setTimeout(30_000));
+                    log.info("Connected to the {} browser server on {}", browserName, endpoint);
+                    return browser;
+                } catch (PlaywrightException ex) {
+                    log.warn("Failed to connect to the browser server on {}: {}", endpoint, ex.getMessage());
+                }
             }
-            case ("firefox") -> {
-                browser = playwrightThreadLocal.get()
-                        .firefox()
-                        .launch(new BrowserType.LaunchOptions().setHeadless(false));
+            if (attempt < attempts) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(500L * attempt);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while connecting to the browser server", ex);
+                }
             }
-            default -> throw new RuntimeException("Failed to create an instance of RemoteWebDriver for: " + binary);
         }
+        if (!Boolean.parseBoolean(properties.getProperty("browserServerFallback", "false"))) {
+            throw new RuntimeException("The browser server on " + endpoint + " is not available,"
+                    + " set browserServerFallback:true to launch a local browser instead");
+        }
+        browserServerFallbacks.increment();
+        log.warn("The browser server on {} is not available, launching a local browser", endpoint);
+        return setLocalWebDriver(playwright, properties);
+    }
 
-        // Create a browser context (isolated session)
-        BrowserContext context = browser.newContext();
-        // Create a new page within the context
-        Page page = context.newPage();
+    /**
+     * Gets the shared browser pools.
+     *
+     * @return the BrowserPool of each engine, empty before {@link #createBrowser(Properties, int)} is called.
+     */
+    public static Map<String, BrowserPool> getBrowserPools() {
+        return Map.copyOf(browserPools);
+    }
+
+    /**
+     * Gets the scheduler that caps the browser processes of every pool.
+     *
+     * @return BrowserScheduler instance, or null before {@link #createBrowser(Properties, int)} is called.
+     */
+    public static BrowserScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Gets the HAR archive of the current test (thread-local).
+     *
+     * @return HarArchive instance, or null in live mode.
+     */
+    public HarArchive getHarArchive() {
+        return harThreadLocal.get();
+    }
+
+    /**
+     * Gets the shared asset cache.
+     *
+     * @return AssetCache instance, or null when the cache is not enabled.
+     */
+    public static AssetCache getAssetCache() {
+        return assetCache;
+    }
 
-        // Set the page, context, and browser in ThreadLocal storage
-        pageThreadLocal.set(page);
-        contextThreadLocal.set(context);
-        browserThreadLocal.set(browser);
+    /**
+     * Gets the failure artifacts of the run.
+     *
+     * @return FailureArtifacts instance, or null when they are not enabled.
+     */
+    public static FailureArtifacts getFailureArtifacts() {
+        return failureArtifacts;
+    }
+
+    /**
+     * Gets the resource sampler of the run.
+     *
+     * @return ResourceSampler instance, or null when it is not enabled.
+     */
+    public static ResourceSampler getResourceSampler() {
+        return resourceSampler;
     }
 
     /**
-     * Gets the Playwright instance (thread-local).
+     * Gets the Playwright instance that owns the current browser (thread-local).
      *
      * @return Playwright instance.
      */
     public Playwright getPlaywright() {
-        return playwrightThreadLocal.get();
+        BrowserPool.PooledBrowser pooled = leaseThreadLocal.get();
+        return pooled == null ? null : pooled.getPlaywright();
     }
 
     /**
@@ -139,7 +622,8 @@ public class PlaywrightManager {
      * @return Browser instance.
      */
     public Browser getBrowser() {
-        return browserThreadLocal.get();
+        BrowserPool.PooledBrowser pooled = leaseThreadLocal.get();
+        return pooled == null ? null : pooled.getBrowser();
     }
 
     /**
@@ -0,0 +1,16 @@
+package com.cmccarthyirl.ui.utils;
+
+import com.microsoft.playwright.BrowserContext;
+import com.microsoft.playwright.Page;
+
+/**
+ * A context and page opened on a pooled browser ahead of the test that will use them.
+ *
+ * @param context    the browser context, with the storage state and routes already installed
+ * @param page       the page, already on the start URL when one is configured
+ * @param routeStats the route policy counters of the context, or null outside the fast profile
+ * @param startUrl   the URL the page was navigated to, or null
+ * @param setupNanos how long the preparation took
+ */
+record PreparedSession(BrowserContext context, Page page, RoutePolicy.Stats routeStats, String startUrl, long setupNanos) {
+}
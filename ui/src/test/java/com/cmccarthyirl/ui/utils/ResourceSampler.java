@@ -0,0 +1,296 @@
+package com.cmccarthyirl.ui.utils;
+
+import com.cmccarthyirl.common.LogManager;
+import org.slf4j.MDC;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Samples the memory and CPU of the Playwright driver and browser processes the JVM has launched, i.e. its
+ * descendant processes, from `/proc` every `resourceSampleMs`, and adds each sample to the tests running at the time.
+ * When a test finishes, its peak and average RSS and CPU are logged to its report, with a warning when its peak RSS
+ * reaches `heavyTestRssMb` or its average CPU `heavyTestCpuPercent` (100% being one core), and at the end of the run every test's figures are written to
+ * {@value #CSV_PATH}.
+ * <p>
+ * A process cannot be told apart by the test using it, so a sample is the footprint of all the browsers at the time:
+ * exact with one worker, and with several it is what the test ran alongside, which is what decides how many workers
+ * a machine can take. The number of tests sharing the samples is reported with them. Browsers of a
+ * {@link BrowserServer} are not children of the JVM and are not sampled. Only works on Linux.
+ */
+public class ResourceSampler {
+
+    public static final String CSV_PATH = "target/resource-usage.csv";
+
+    private static final LogManager log = new LogManager(ResourceSampler.class);
+    // USER_HZ, the unit of the CPU times in /proc/<pid>/stat, which is 100 on every Linux the browsers run on
+    private static final double TICKS_PER_SECOND = 100;
+
+    private final long intervalMillis;
+    private final long heavyRssMb;
+    private final double heavyCpuPercent;
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "resource-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // The tests running now, by the thread running them
+    private final Map<Thread, TestUsage> running = new ConcurrentHashMap<>();
+    private final Queue<TestUsage> finished = new ConcurrentLinkedQueue<>();
+    // The CPU ticks of each process at the previous sample, null before the first, only used by the sampler thread
+    private Map<Long, Long> previousTicks;
+    private long previousNanos;
+
+    // Counters
+    private final Usage suite = new Usage();
+    private final LongAdder heavyTests = new LongAdder();
+
+    ResourceSampler(long intervalMillis, long heavyRssMb, double heavyCpuPercent) {
+        this.intervalMillis = intervalMillis;
+        this.heavyRssMb = heavyRssMb;
+        this.heavyCpuPercent = heavyCpuPercent;
+    }
+
+    /**
+     * Starts sampling when `resourceSampler:true` (or `-DresourceSampler=true`) and `/proc` can be read.
+     *
+     * @param properties the configuration
+     * @return the running sampler, or null when it is not enabled
+     */
+    public static ResourceSampler fromProperties(Properties properties) {
+        if (!Boolean.parseBoolean(System.getProperty("resourceSampler", properties.getProperty("resourceSampler", "false")))) {
+            return null;
+        }
+        if (!Files.isReadable(Paths.get("/proc/self/stat"))) {
+            log.warn("The resource sampler needs /proc, which this machine does not have");
+            return null;
+        }
+        ResourceSampler sampler = new ResourceSampler(
+                Long.parseLong(properties.getProperty("resourceSampleMs", "500")),
+                Long.parseLong(properties.getProperty("heavyTestRssMb", "1024")),
+                Double.parseDouble(properties.getProperty("heavyTestCpuPercent", "150")));
+        sampler.start();
+        return sampler;
+    }
+
+    /**
+     * Starts adding the samples to the current thread's test, named by its MDC test id.
+     */
+    public void startTest() {
+        running.put(Thread.currentThread(), new TestUsage(MDC.get("testId")));
+    }
+
+    /**
+     * Stops adding the samples to the current thread's test and logs its usage to its report.
+     * A test that ran between two samples has no usage.
+     */
+    public void finishTest() {
+        TestUsage test = running.remove(Thread.currentThread());
+        if (test == null || test.getSamples() == 0) {
+            return;
+        }
+        finished.add(test);
+        String usage = test.describe();
+        if (test.isHeavy(heavyRssMb, heavyCpuPercent)) {
+            heavyTests.increment();
+            log.warn("Heavy test, over {} MB or {}% CPU: {}", heavyRssMb, Math.round(heavyCpuPercent), usage);
+        } else {
+            log.info("Browser resources: {}", usage);
+        }
+    }
+
+    /**
+     * Stops sampling and writes the usage of every test to {@value #CSV_PATH}.
+     */
+    public void close() {
+        sampler.shutdown();
+        try {
+            sampler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (finished.isEmpty()) {
+            return;
+        }
+        Path csv = Paths.get(CSV_PATH);
+        try {
+            Files.createDirectories(csv.toAbsolutePath().getParent());
+            try (Writer writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+                writer.write("testId,samples,maxConcurrentTests,peakRssMb,avgRssMb,peakCpuPercent,avgCpuPercent,heavy\n");
+                for (TestUsage test : finished) {
+                    writer.write(test.toCsv(heavyRssMb, heavyCpuPercent));
+                }
+            }
+            log.info("Wrote the resource usage of {} tests to {}", finished.size(), csv.toAbsolutePath());
+        } catch (IOException ex) {
+            log.warn("Failed to write the resource usage to {}: {}", csv, ex.getMessage());
+        }
+    }
+
+    /**
+     * Summarises the usage of the whole run in a single line.
+     *
+     * @return the run's usage
+     */
+    public String describeMetrics() {
+        synchronized (suite) {
+            return suite.describe() + ", heavyTests=" + heavyTests.sum() + " (over " + heavyRssMb + " MB or "
+                    + Math.round(heavyCpuPercent) + "% CPU)";
+        }
+    }
+
+    private void start() {
+        // The first run only reads the CPU times the processes already had, which are not part of any test
+        sampler.scheduleAtFixedRate(this::sample, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Runs on the sampler thread
+    private void sample() {
+        try {
+            long now = System.nanoTime();
+            double elapsedSeconds = (now - previousNanos) / 1e9;
+            previousNanos = now;
+            long rssKb = 0;
+            long cpuTicks = 0;
+            Map<Long, Long> ticks = new HashMap<>();
+            List<ProcessHandle> processes = ProcessHandle.current().descendants().toList();
+            for (ProcessHandle process : processes) {
+                long pid = process.pid();
+                ProcessStat stat = ProcessStat.read(pid);
+                if (stat == null) {
+                    // The process exited since it was listed
+                    continue;
+                }
+                rssKb += stat.rssKb();
+                ticks.put(pid, stat.cpuTicks());
+                // A process first seen now started after the previous sample, so all of its CPU time is new
+                if (previousTicks != null) {
+                    cpuTicks += stat.cpuTicks() - previousTicks.getOrDefault(pid, 0L);
+                }
+            }
+            boolean baseline = previousTicks == null;
+            previousTicks = ticks;
+            if (baseline) {
+                return;
+            }
+            double cpuPercent = elapsedSeconds <= 0 ? 0 : cpuTicks / TICKS_PER_SECOND / elapsedSeconds * 100;
+
+            synchronized (suite) {
+                suite.add(rssKb, cpuPercent);
+            }
+            int concurrent = running.size();
+            for (TestUsage test : running.values()) {
+                test.add(rssKb, cpuPercent, concurrent);
+            }
+        } catch (RuntimeException ex) {
+            // A failed sample must not stop the schedule
+            log.debug("Failed to sample the browser processes: {}", ex.getMessage());
+        }
+    }
+
+    // The RSS and CPU times of a process, from /proc/<pid>/status and /proc/<pid>/stat
+    private record ProcessStat(long rssKb, long cpuTicks) {
+
+        static ProcessStat read(long pid) {
+            try {
+                String stat = Files.readString(Paths.get("/proc", String.valueOf(pid), "stat"));
+                // The command name in brackets may contain spaces, so the fields are counted from after it
+                String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+                // utime and stime, the 14th and 15th fields of the whole line
+                long cpuTicks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+                long rssKb = 0;
+                for (String line : Files.readAllLines(Paths.get("/proc", String.valueOf(pid), "status"))) {
+                    if (line.startsWith("VmRSS:")) {
+                        rssKb = Long.parseLong(line.replaceAll("\\D", ""));
+                        break;
+                    }
+                }
+                return new ProcessStat(rssKb, cpuTicks);
+            } catch (IOException | RuntimeException ex) {
+                return null;
+            }
+        }
+    }
+
+    // Peak and running totals of the samples, guarded by the owner
+    private static class Usage {
+
+        private int samples;
+        private long peakRssKb;
+        private long totalRssKb;
+        private double peakCpuPercent;
+        private double totalCpuPercent;
+
+        void add(long rssKb, double cpuPercent) {
+            samples++;
+            peakRssKb = Math.max(peakRssKb, rssKb);
+            totalRssKb += rssKb;
+            peakCpuPercent = Math.max(peakCpuPercent, cpuPercent);
+            totalCpuPercent += cpuPercent;
+        }
+
+        long averageRssKb() {
+            return samples == 0 ? 0 : totalRssKb / samples;
+        }
+
+        double averageCpuPercent() {
+            return samples == 0 ? 0 : totalCpuPercent / samples;
+        }
+
+        String describe() {
+            return "samples=" + samples + ", peakRssMb=" + peakRssKb / 1024 + ", avgRssMb=" + averageRssKb() / 1024
+                    + ", peakCpu=" + Math.round(peakCpuPercent) + "%, avgCpu=" + Math.round(averageCpuPercent()) + "%";
+        }
+    }
+
+    private static class TestUsage {
+
+        private final String testId;
+        private final Usage usage = new Usage();
+        private int maxConcurrent;
+
+        TestUsage(String testId) {
+            this.testId = testId;
+        }
+
+        synchronized void add(long rssKb, double cpuPercent, int concurrent) {
+            usage.add(rssKb, cpuPercent);
+            maxConcurrent = Math.max(maxConcurrent, concurrent);
+        }
+
+        synchronized int getSamples() {
+            return usage.samples;
+        }
+
+        synchronized boolean isHeavy(long heavyRssMb, double heavyCpuPercent) {
+            return usage.peakRssKb / 1024 >= heavyRssMb || usage.averageCpuPercent() >= heavyCpuPercent;
+        }
+
+        synchronized String describe() {
+            return usage.describe() + ", sharedWith=" + (maxConcurrent - 1) + " tests";
+        }
+
+        synchronized String toCsv(long heavyRssMb, double heavyCpuPercent) {
+            return String.format(Locale.ROOT, "\"%s\",%d,%d,%d,%d,%.0f,%.0f,%b%n",
+                    String.valueOf(testId).replace("\"", "\"\""), usage.samples, maxConcurrent,
+                    usage.peakRssKb / 1024, usage.averageRssKb() / 1024, usage.peakCpuPercent,
+                    usage.averageCpuPercent(), isHeavy(heavyRssMb, heavyCpuPercent));
+        }
+    }
+}
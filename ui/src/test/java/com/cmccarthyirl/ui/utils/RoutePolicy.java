@@ -0,0 +1,160 @@
+package com.cmccarthyirl.ui.utils;
+
+import com.microsoft.playwright.BrowserContext;
+import com.microsoft.playwright.Request;
+import com.microsoft.playwright.Response;
+import com.microsoft.playwright.Route;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Allow/deny rules for the requests made by a browser context, used by the fast execution profile.
+ * A request is blocked when its resource type is in `blockResourceTypes` or its host matches `blockHosts`,
+ * unless its host matches `allowHosts`. Host patterns may start with `*.` to match every subdomain.
+ * Requests that are not blocked fall back to the next route handler, or the network.
+ */
+public class RoutePolicy {
+
+    private final Set<String> blockedTypes;
+    private final List<Pattern> blockedHosts;
+    private final List<Pattern> allowedHosts;
+
+    public RoutePolicy(Set<String> blockedTypes, List<String> blockedHosts, List<String> allowedHosts) {
+        this.blockedTypes = blockedTypes;
+        this.blockedHosts = blockedHosts.stream().map(RoutePolicy::hostPattern).toList();
+        this.allowedHosts = allowedHosts.stream().map(RoutePolicy::hostPattern).toList();
+    }
+
+    /**
+     * Creates a policy from the `blockResourceTypes`, `blockHosts` and `allowHosts` properties,
+     * each a comma-separated list.
+     *
+     * @param properties the configuration properties
+     * @return the route policy
+     */
+    public static RoutePolicy fromProperties(Properties properties) {
+        return new RoutePolicy(
+                Set.copyOf(list(properties.getProperty("blockResourceTypes", "image,media,font"))),
+                list(properties.getProperty("blockHosts", "")),
+                list(properties.getProperty("allowHosts", "")));
+    }
+
+    /**
+     * Routes every request of a context through the policy.
+     *
+     * @param context the browser context
+     * @return the counters of the context, to report once its test has finished
+     */
+    public Stats install(BrowserContext context) {
+        Stats stats = new Stats();
+        context.route("**/*", route -> handle(route, stats));
+        context.onResponse(response -> stats.received(response));
+        return stats;
+    }
+
+    /**
+     * Decides whether a request is blocked.
+     *
+     * @param resourceType the resource type of the request, e.g. `image`
+     * @param url          the URL of the request
+     * @return true if the request is blocked
+     */
+    public boolean isBlocked(String resourceType, String url) {
+        String host = host(url);
+        if (allowedHosts.stream().anyMatch(pattern -> pattern.matcher(host).matches())) {
+            return false;
+        }
+        return blockedTypes.contains(resourceType)
+                || blockedHosts.stream().anyMatch(pattern -> pattern.matcher(host).matches());
+    }
+
+    private void handle(Route route, Stats stats) {
+        Request request = route.request();
+        if (isBlocked(request.resourceType(), request.url())) {
+            stats.blocked(request.resourceType());
+            route.abort("blockedbyclient");
+        } else {
+            route.fallback();
+        }
+    }
+
+    private static String host(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host == null ? "" : host.toLowerCase(Locale.ROOT);
+        } catch (IllegalArgumentException ex) {
+            return "";
+        }
+    }
+
+    // "*.example.com" matches example.com and any of its subdomains
+    private static Pattern hostPattern(String host) {
+        String pattern = host.toLowerCase(Locale.ROOT);
+        if (pattern.startsWith("*.")) {
+            return Pattern.compile("(.+\\.)?" + Pattern.quote(pattern.substring(2)));
+        }
+        return Pattern.compile(Pattern.quote(pattern));
+    }
+
+    private static List<String> list(String value) {
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(item -> !item.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The requests blocked and the bytes received by one browser context.
+     */
+    public static class Stats {
+
+        private final Map<String, LongAdder> blockedByType = new TreeMap<>();
+        private final LongAdder responses = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+
+        private synchronized void blocked(String resourceType) {
+            blockedByType.computeIfAbsent(resourceType, type -> new LongAdder()).increment();
+        }
+
+        // The size is taken from Content-Length, which avoids a round-trip per response for the exact size
+        private void received(Response response) {
+            responses.increment();
+            String length = response.headers().get("content-length");
+            if (length != null) {
+                try {
+                    bytes.add(Long.parseLong(length));
+                } catch (NumberFormatException ignored) {
+                    // Not a size, so not counted
+                }
+            }
+        }
+
+        public synchronized long getBlocked() {
+            return blockedByType.values().stream().mapToLong(LongAdder::sum).sum();
+        }
+
+        public long getBytesReceived() {
+            return bytes.sum();
+        }
+
+        /**
+         * Summarises the counters in a single line.
+         *
+         * @return the counters
+         */
+        public synchronized String describe() {
+            return "blocked=" + getBlocked() + " " + blockedByType + ", responses=" + responses.sum()
+                    + ", bytesReceived=" + bytes.sum();
+        }
+    }
+}